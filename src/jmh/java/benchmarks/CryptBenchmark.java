@@ -0,0 +1,40 @@
+package benchmarks;
+import module java.base;
+import org.david.miscellaneous.criptography.CryptManager;
+import org.david.miscellaneous.criptography.HashExecutor;
+import org.david.miscellaneous.criptography.HashProfile;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CryptBenchmark {
+
+    @Param({"hkdf-sha256:0", "pbkdf2-sha256:100000", "pbkdf2-sha256:600000", "pbkdf2-sha512:210000"})
+    public String profile;
+
+    private HashProfile hashProfile;
+    private String storedHash;
+
+    @Setup
+    public void setUp() {
+        hashProfile = HashProfile.parse(profile);
+        storedHash = CryptManager.hashPassword("password123", hashProfile);
+    }
+
+    @Benchmark
+    public String hashPassword() {
+        return CryptManager.hashPassword("password123", hashProfile);
+    }
+
+    @Benchmark
+    public boolean verifyPassword() {
+        return CryptManager.verifyPassword("password123", storedHash);
+    }
+
+    // same verification routed through the bounded crypt pool, the difference is the hand-off cost
+    @Benchmark
+    public boolean verifyPasswordOnCryptExecutor() {
+        return HashExecutor.instance.verify("password123", storedHash);
+    }
+}
@@ -0,0 +1,82 @@
+package benchmarks;
+import module java.base;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.javalin.json.JavalinJackson;
+import org.david.domain.models.ResponseModel;
+import org.david.domain.models.UserModels;
+import org.david.miscellaneous.serialization.JsonCodecs;
+import org.david.miscellaneous.serialization.JsonMappers;
+import org.david.miscellaneous.validators.UserValidators;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class JsonBindingBenchmark {
+
+    private static final String BODY = """
+        {"email": "benchmark@example.com", "password": "password123"}""";
+
+    private final JavalinJackson javalinJackson = JsonMappers.javalinJackson();
+    private final ObjectMapper handlerMapper = new ObjectMapper();
+    private final OutputStream sink = OutputStream.nullOutputStream();
+    private UserModels.User user;
+    private List<UserModels.User> users;
+
+    @Setup
+    public void setUp() {
+        user = new UserModels.User(1, "benchmark@example.com", null);
+        users = IntStream.range(0, 100)
+            .mapToObj(i -> new UserModels.User(i, "user" + i + "@example.com", null))
+            .toList();
+    }
+
+    /*
+     * What a login or create request used to pay before the body was bound once: an integrity parse
+     * with a fresh mapper, the body validator parse and the handler parse.
+     */
+    @Benchmark
+    public UserModels.User tripleParse() throws JsonProcessingException {
+        new ObjectMapper().readValue(BODY, Object.class);
+        UserModels.User validated = javalinJackson.fromJsonString(BODY, UserModels.User.class);
+        if (validated.email() == null || validated.password() == null) {
+            throw new IllegalStateException();
+        }
+        return handlerMapper.readValue(BODY, UserModels.User.class);
+    }
+
+    @Benchmark
+    public UserModels.User singleParse() {
+        return UserValidators.validateUserDto(BODY);
+    }
+
+    @Benchmark
+    public String serializeUserResponse() {
+        return javalinJackson.toJsonString(Map.of("data", new ResponseModel<>(user, null)), Map.class);
+    }
+
+    @Benchmark
+    public String serializeUserListResponse() {
+        return javalinJackson.toJsonString(Map.of("users", new ResponseModel<>(users, null)), Map.class);
+    }
+
+    // what the handlers do now: no wrapper map, written through a pooled generator into the stream
+    @Benchmark
+    public void codecUserResponse() throws IOException {
+        try (var generator = JsonCodecs.generator(sink)) {
+            generator.writeStartObject();
+            JsonCodecs.writeResponse(generator, "data", new ResponseModel<>(user, null), JsonCodecs.USER);
+            generator.writeEndObject();
+        }
+    }
+
+    @Benchmark
+    public void codecUserListResponse() throws IOException {
+        try (var generator = JsonCodecs.generator(sink)) {
+            generator.writeStartObject();
+            JsonCodecs.writeResponse(generator, "users", new ResponseModel<>(users, null), JsonCodecs.USER_LIST);
+            generator.writeEndObject();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package benchmarks;
+import module java.base;
+import org.david.boundaries.adapters.DB;
+import org.david.boundaries.adapters.UserEntity;
+import org.david.domain.models.UserModels;
+import org.david.domain.repository.UserRepository;
+import org.h2.jdbcx.JdbcDataSource;
+import org.jooq.SQLDialect;
+import org.openjdk.jmh.annotations.*;
+
+/*
+ * Repository paths against an in-process H2 database, so the numbers are the repository and jOOQ
+ * overhead plus an embedded engine rather than network round trips to Postgres.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RepositoryBenchmark {
+    private static final int USERS = 10_000;
+
+    private UserRepository cachedRepository;
+    private UserRepository uncachedRepository;
+    private final AtomicInteger nextUser = new AtomicInteger();
+    private final AtomicInteger nextInsert = new AtomicInteger();
+
+    @Setup
+    public void setUp() throws Exception {
+        var dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:repository-benchmark;DB_CLOSE_DELAY=-1");
+        try (var connection = dataSource.getConnection(); var statement = connection.createStatement()) {
+            statement.execute("drop table if exists users");
+            statement.execute("create table users (id int auto_increment primary key, email varchar_ignorecase(255) not null unique, password varchar(255) not null, version bigint not null default 0)");
+            statement.execute("insert into users (email, password) select 'user' || x || '@example.com', 'hash' from system_range(0, " + (USERS - 1) + ")");
+        }
+        var db = DB.using(dataSource, SQLDialect.H2);
+        cachedRepository = new UserRepository(db);
+        cachedRepository.enableUserCache(Duration.ofSeconds(5));
+        cachedRepository.rebuildEmailFilter();
+        uncachedRepository = new UserRepository(db);
+    }
+
+    @Benchmark
+    public Optional<UserEntity> getSingleUserCached() {
+        return cachedRepository.getSingleUser("user42@example.com");
+    }
+
+    @Benchmark
+    public Optional<UserEntity> getSingleUserFromDatabase() {
+        return uncachedRepository.getSingleUser("user" + nextUser.getAndIncrement() % USERS + "@example.com");
+    }
+
+    @Benchmark
+    public Optional<UserEntity> getSingleUserUnknownEmail() {
+        return cachedRepository.getSingleUser("stranger" + nextUser.getAndIncrement() + "@example.com");
+    }
+
+    @Benchmark
+    public List<UserEntity> getUsersPage() {
+        return uncachedRepository.getUsersPage(nextUser.getAndIncrement() % (USERS - 100), 100);
+    }
+
+    @Benchmark
+    public int createUser() {
+        return uncachedRepository.createUser(new UserModels.User(null, "new" + nextInsert.getAndIncrement() + "@example.com", "hash"));
+    }
+}
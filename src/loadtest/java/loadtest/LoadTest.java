@@ -0,0 +1,263 @@
+package loadtest;
+import module java.base;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.david.boundaries.adapters.DB;
+import org.david.boundaries.adapters.DbConfig;
+import org.david.boundaries.rest.Server;
+import org.david.boundaries.rest.handlers.UserHandlers;
+import org.david.domain.models.UserModels;
+import org.david.domain.repository.InMemoryUserStore;
+import org.david.domain.repository.UserRepository;
+import org.david.domain.repository.UserStore;
+import org.david.miscellaneous.criptography.CryptManager;
+import org.david.miscellaneous.criptography.HashProfile;
+import org.david.miscellaneous.health.Readiness;
+import org.david.miscellaneous.metrics.RequestTiming;
+import org.david.miscellaneous.throttling.ConcurrencyLimiter;
+import org.david.miscellaneous.throttling.LoginThrottle;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.jooq.SQLDialect;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.sql.SQLException;
+
+/*
+ * End to end load test: boots the app in process over the chosen backend, seeds users, drives the
+ * user routes with an open-loop mix and prints throughput plus latency percentiles. Arguments are
+ * key=value pairs, see DEFAULTS. With minThroughput set the run fails when the measured requests/sec
+ * fall below it, so it can gate changes.
+ */
+public class LoadTest {
+    private static final Map<String, String> DEFAULTS = Map.ofEntries(
+        Map.entry("backend", "h2"),                 // h2 (embedded), memory (InMemoryUserStore) or postgres (the app database)
+        Map.entry("rate", "500"),                   // requests per second offered
+        Map.entry("duration", "30s"),
+        Map.entry("warmup", "10s"),
+        Map.entry("concurrency", "512"),            // max requests in flight
+        Map.entry("mix", "login:60,create:10,update:10,get-all:20"),
+        Map.entry("users", "1000"),                 // seeded before the run
+        Map.entry("hashProfile", ""),               // e.g. pbkdf2-sha256:100000, the app default when empty
+        Map.entry("timeout", "30s"),
+        Map.entry("minThroughput", "0"),
+        Map.entry("loginThrottle", "false"),        // every request comes from one address, so it is off by default
+        Map.entry("concurrencyLimit", "true"),      // the adaptive limiter the app runs with, 503s count as errors
+        Map.entry("serverTiming", "false"),         // Server-Timing header on the responses
+        Map.entry("slowRequest", "1s"),             // requests slower than this are logged with their breakdown
+        Map.entry("report", "build/reports/loadtest/results.json"));
+    private static final String PASSWORD = "load-test-password";
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    public static void main(String[] args) throws Exception {
+        var config = parse(args);
+        if (!config.get("hashProfile").isBlank()) {
+            CryptManager.configure(HashProfile.parse(config.get("hashProfile")));
+        }
+        var userStore = userStore(config);
+        var users = Integer.parseInt(config.get("users"));
+        var runId = Long.toString(System.currentTimeMillis(), 36);
+        seed(userStore, runId, users);
+        if (userStore instanceof UserRepository repository) {
+            repository.rebuildEmailFilter();
+        }
+
+        var loginThrottle = Boolean.parseBoolean(config.get("loginThrottle"))
+            ? new LoginThrottle(LoginThrottle.Settings.DEFAULTS)
+            : LoginThrottle.DISABLED;
+        var concurrencyLimiter = Boolean.parseBoolean(config.get("concurrencyLimit"))
+            ? new ConcurrencyLimiter(ConcurrencyLimiter.Settings.DEFAULTS)
+            : ConcurrencyLimiter.DISABLED;
+        var timing = new RequestTiming.Settings(
+            Boolean.parseBoolean(config.get("serverTiming")), duration(config.get("slowRequest")), 10);
+        var app = Server.create(new UserHandlers(userStore), loginThrottle, concurrencyLimiter, timing, Readiness.ready()).start(0);
+        try {
+            var baseUri = URI.create("http://localhost:" + app.port() + "/users/");
+            var client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+            var driver = new OpenLoopDriver(
+                client,
+                mix(config.get("mix"), baseUri, runId, users),
+                Double.parseDouble(config.get("rate")),
+                Integer.parseInt(config.get("concurrency")),
+                duration(config.get("timeout")));
+            System.out.printf("load test: %s req/s for %s after %s warmup, mix %s, %d users, backend %s, hash %s%n",
+                config.get("rate"), config.get("duration"), config.get("warmup"), config.get("mix"), users,
+                config.get("backend"), CryptManager.defaultProfile());
+            var result = driver.run(duration(config.get("warmup")), duration(config.get("duration")));
+            var throughput = report(config, result);
+            var minThroughput = Double.parseDouble(config.get("minThroughput"));
+            if (throughput < minThroughput) {
+                System.err.printf("throughput %.1f req/s is below the minimum of %.1f req/s%n", throughput, minThroughput);
+                System.exit(1);
+            }
+        } finally {
+            app.stop();
+        }
+        System.exit(0);
+    }
+
+    private static UserStore userStore(Map<String, String> config) throws SQLException {
+        return switch (config.get("backend")) {
+            case "memory" -> new InMemoryUserStore();
+            case "postgres" -> new UserRepository(DB.instance());
+            case "h2" -> {
+                // sized and gated by the same DB_* settings as the app, see DbConfig
+                var dbConfig = DbConfig.load();
+                var pool = JdbcConnectionPool.create("jdbc:h2:mem:loadtest;DB_CLOSE_DELAY=-1", "sa", "");
+                pool.setMaxConnections(dbConfig.maxSize());
+                try (var connection = pool.getConnection(); var statement = connection.createStatement()) {
+                    statement.execute("create table if not exists users (id int auto_increment primary key, email varchar_ignorecase(255) not null unique, password varchar(255) not null, version bigint not null default 0)");
+                }
+                yield new UserRepository(
+                    DB.using(pool, SQLDialect.H2, dbConfig.gatePermits(), dbConfig.gateWait(), dbConfig.gateMaxWaiters()));
+            }
+            default -> throw new IllegalArgumentException("Unknown backend " + config.get("backend"));
+        };
+    }
+
+    // every seeded user shares one password hash, seeding should not take longer than the run
+    private static void seed(UserStore userStore, String runId, int users) {
+        var hash = CryptManager.hashPassword(PASSWORD);
+        for (var i = 0; i < users; i++) {
+            userStore.createUser(new UserModels.User(null, seededEmail(runId, i), hash));
+        }
+    }
+
+    private static Map<OpenLoopDriver.Operation, Integer> mix(String mix, URI baseUri, String runId, int users) {
+        var operations = new LinkedHashMap<OpenLoopDriver.Operation, Integer>();
+        for (var entry : mix.split(",")) {
+            var parts = entry.strip().split(":");
+            var name = parts[0];
+            var weight = Integer.parseInt(parts[1]);
+            if (weight <= 0) {
+                continue;
+            }
+            operations.put(switch (name) {
+                case "login" -> operation(name, sequence -> post(baseUri.resolve("login"),
+                    body(seededEmail(runId, (int) (sequence % users)))));
+                case "create" -> operation(name, sequence -> post(baseUri.resolve("create"),
+                    body("created-" + runId + "-" + sequence + "@example.com")));
+                case "update" -> operation(name, sequence -> HttpRequest.newBuilder(baseUri.resolve("update"))
+                    .header("Content-Type", "application/json")
+                    .method("PATCH", HttpRequest.BodyPublishers.ofString(body(seededEmail(runId, (int) (sequence % users)))))
+                    .build());
+                case "get-all" -> operation(name, _ -> HttpRequest.newBuilder(baseUri.resolve("get-all")).GET().build());
+                default -> throw new IllegalArgumentException("Unknown operation " + name);
+            }, weight);
+        }
+        return operations;
+    }
+
+    private static OpenLoopDriver.Operation operation(String name, LongFunction<HttpRequest> request) {
+        return new OpenLoopDriver.Operation() {
+            public String name() {
+                return name;
+            }
+
+            public HttpRequest request(long sequence) {
+                return request.apply(sequence);
+            }
+        };
+    }
+
+    private static HttpRequest post(URI uri, String body) {
+        return HttpRequest.newBuilder(uri)
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(body))
+            .build();
+    }
+
+    private static String body(String email) {
+        return "{\"email\":\"" + email + "\",\"password\":\"" + PASSWORD + "\"}";
+    }
+
+    private static String seededEmail(String runId, int index) {
+        return "load-" + runId + "-" + index + "@example.com";
+    }
+
+    private static double report(Map<String, String> config, OpenLoopDriver.Result result) throws IOException {
+        var seconds = result.measuredNanos() / 1e9;
+        var completed = result.operations().stream().mapToLong(stats -> stats.latency.count()).sum();
+        var throughput = completed / seconds;
+        var offered = result.offered() / (duration(config.get("duration")).toNanos() / 1e9);
+        System.out.printf("%n%-10s %9s %7s %9s %9s %9s %9s %9s %9s %12s%n",
+            "operation", "requests", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "svc p99 ms");
+        var operations = new ArrayList<Map<String, Object>>();
+        for (var stats : result.operations()) {
+            var count = stats.latency.count();
+            System.out.printf("%-10s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f %12.2f%n",
+                stats.name, count, stats.errors.sum(), count / seconds,
+                millis(stats.latency.percentileMicros(50)), millis(stats.latency.percentileMicros(90)),
+                millis(stats.latency.percentileMicros(99)), millis(stats.latency.percentileMicros(99.9)),
+                millis(stats.latency.maxMicros()), millis(stats.serviceTime.percentileMicros(99)));
+            var percentiles = new LinkedHashMap<String, Double>();
+            var servicePercentiles = new LinkedHashMap<String, Double>();
+            for (var percentile : PERCENTILES) {
+                percentiles.put(label(percentile), millis(stats.latency.percentileMicros(percentile)));
+                servicePercentiles.put(label(percentile), millis(stats.serviceTime.percentileMicros(percentile)));
+            }
+            percentiles.put("max", millis(stats.latency.maxMicros()));
+            var statuses = new LinkedHashMap<String, Long>();
+            stats.statuses.forEach((status, counter) -> statuses.put(Integer.toString(status), counter.sum()));
+            operations.add(Map.of(
+                "name", stats.name,
+                "requests", count,
+                "errors", stats.errors.sum(),
+                "throughput", count / seconds,
+                "latencyMillis", percentiles,
+                "serviceTimeMillis", servicePercentiles,
+                "statuses", statuses));
+        }
+        System.out.printf("%ntotal: %d requests in %.1fs, %.1f req/s achieved of %.1f offered, max dispatch lag %.2f ms%n",
+            completed, seconds, throughput, offered, millis(result.maxDispatchLagMicros()));
+        System.out.println("latency is measured from the scheduled send time, svc is from the actual send");
+
+        var reportFile = Path.of(config.get("report"));
+        Files.createDirectories(reportFile.toAbsolutePath().getParent());
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(reportFile.toFile(), Map.of(
+            "config", new TreeMap<>(config),
+            "throughput", throughput,
+            "offered", offered,
+            "maxDispatchLagMillis", millis(result.maxDispatchLagMicros()),
+            "operations", operations));
+        System.out.println("report written to " + reportFile);
+        return throughput;
+    }
+
+    private static String label(double percentile) {
+        return percentile == Math.rint(percentile) ? "p" + (int) percentile : "p" + percentile;
+    }
+
+    private static double millis(long micros) {
+        return micros / 1_000.0;
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        var config = new HashMap<>(DEFAULTS);
+        for (var arg : args) {
+            var separator = arg.indexOf('=');
+            if (separator < 0 || !DEFAULTS.containsKey(arg.substring(0, separator))) {
+                throw new IllegalArgumentException("Unknown argument " + arg + ", expected one of " + new TreeSet<>(DEFAULTS.keySet()));
+            }
+            config.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        return config;
+    }
+
+    private static Duration duration(String value) {
+        var text = value.strip().toLowerCase(Locale.ROOT);
+        if (text.endsWith("ms")) {
+            return Duration.ofMillis(Long.parseLong(text.substring(0, text.length() - 2)));
+        }
+        if (text.endsWith("m")) {
+            return Duration.ofMinutes(Long.parseLong(text.substring(0, text.length() - 1)));
+        }
+        if (text.endsWith("s")) {
+            text = text.substring(0, text.length() - 1);
+        }
+        return Duration.ofSeconds(Long.parseLong(text));
+    }
+}
@@ -0,0 +1,135 @@
+package loadtest;
+import module java.base;
+import org.david.miscellaneous.metrics.LatencyHistogram;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+/*
+ * Sends requests on a fixed arrival schedule instead of waiting for responses, so a slow server does
+ * not slow the load down with it. Latency is taken from the moment a request was due, not from when it
+ * actually went out, which is what keeps queueing behind a stall in the numbers (coordinated omission).
+ * The service time from the actual send is kept next to it to show how much of the latency was queueing.
+ */
+final class OpenLoopDriver {
+
+    interface Operation {
+        String name();
+        HttpRequest request(long sequence);
+    }
+
+    static final class OperationStats {
+        final String name;
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LatencyHistogram serviceTime = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+        final Map<Integer, LongAdder> statuses = new ConcurrentSkipListMap<>();
+
+        OperationStats(String name) {
+            this.name = name;
+        }
+
+        void record(long dueNanos, long sentNanos, int status) {
+            var now = System.nanoTime();
+            latency.recordNanos(now - dueNanos);
+            serviceTime.recordNanos(now - sentNanos);
+            statuses.computeIfAbsent(status, _ -> new LongAdder()).increment();
+            if (status < 200 || status >= 400) {
+                errors.increment();
+            }
+        }
+    }
+
+    record Result(List<OperationStats> operations, long measuredNanos, long offered, long maxDispatchLagMicros) {}
+
+    private final HttpClient client;
+    private final List<Operation> operations;
+    private final int[] cumulativeWeights;
+    private final double ratePerSecond;
+    private final int maxInFlight;
+    private final Duration timeout;
+
+    OpenLoopDriver(HttpClient client, Map<Operation, Integer> mix, double ratePerSecond, int maxInFlight, Duration timeout) {
+        this.client = client;
+        this.operations = List.copyOf(mix.keySet());
+        this.cumulativeWeights = new int[operations.size()];
+        var total = 0;
+        for (var i = 0; i < operations.size(); i++) {
+            total += mix.get(operations.get(i));
+            cumulativeWeights[i] = total;
+        }
+        this.ratePerSecond = ratePerSecond;
+        this.maxInFlight = maxInFlight;
+        this.timeout = timeout;
+    }
+
+    Result run(Duration warmup, Duration duration) throws InterruptedException {
+        var stats = operations.stream().map(operation -> new OperationStats(operation.name())).toList();
+        var inFlight = new Semaphore(maxInFlight);
+        var random = new SplittableRandom(42);
+        var interval = 1e9 / ratePerSecond;
+        var start = System.nanoTime();
+        var measureFrom = start + warmup.toNanos();
+        var end = measureFrom + duration.toNanos();
+        var offered = 0L;
+        var maxLag = 0L;
+        var lastCompletion = new AtomicLong(measureFrom);
+
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (var sequence = 0L; ; sequence++) {
+                var due = start + (long) (sequence * interval);
+                if (due >= end) {
+                    break;
+                }
+                for (var wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                    LockSupport.parkNanos(wait);
+                }
+                // past the in-flight cap the schedule slips, the slip still shows up as latency
+                inFlight.acquire();
+                var measured = due >= measureFrom;
+                if (measured) {
+                    offered++;
+                    maxLag = Math.max(maxLag, System.nanoTime() - due);
+                }
+                var index = pick(random);
+                var operation = operations.get(index);
+                var operationStats = stats.get(index);
+                var request = operation.request(sequence);
+                executor.execute(() -> {
+                    var sent = System.nanoTime();
+                    var status = send(request);
+                    if (measured) {
+                        operationStats.record(due, sent, status);
+                        lastCompletion.accumulateAndGet(System.nanoTime(), Math::max);
+                    }
+                    inFlight.release();
+                });
+            }
+        }
+        return new Result(stats, lastCompletion.get() - measureFrom, offered, maxLag / 1_000);
+    }
+
+    private int send(HttpRequest request) {
+        try {
+            return client.send(HttpRequest.newBuilder(request, (_, _) -> true).timeout(timeout).build(),
+                HttpResponse.BodyHandlers.discarding()).statusCode();
+        } catch (IOException e) {
+            // connection errors and timeouts are reported as status 0
+            return 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+    }
+
+    private int pick(SplittableRandom random) {
+        var roll = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (var i = 0; i < cumulativeWeights.length; i++) {
+            if (roll < cumulativeWeights[i]) {
+                return i;
+            }
+        }
+        return cumulativeWeights.length - 1;
+    }
+}
@@ -1,72 +1,219 @@
-import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.core.JsonParseException;
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import io.javalin.Javalin;
-import io.javalin.json.JavalinJackson;
-import io.javalin.validation.ValidationError;
-import io.javalin.validation.ValidationException;
 import org.david.boundaries.adapters.DB;
+import org.david.boundaries.adapters.DbConfig;
+import org.david.boundaries.adapters.ReplicaRouter;
+import org.david.boundaries.adapters.SchemaMigrator;
+import org.david.boundaries.rest.Server;
 import org.david.boundaries.rest.handlers.UserHandlers;
+import org.david.domain.repository.InMemoryUserStore;
 import org.david.domain.repository.UserRepository;
-import org.david.miscellaneous.custom_exceptions.HttpCustomException;
-import org.david.miscellaneous.validators.UserValidators;
+import org.david.domain.repository.UserStore;
+import org.david.miscellaneous.criptography.CryptManager;
+import org.david.miscellaneous.criptography.HashProfile;
+import org.david.miscellaneous.criptography.TokenManager;
+import org.david.miscellaneous.health.Readiness;
+import org.david.miscellaneous.health.Warmup;
+import org.david.miscellaneous.metrics.MetricsRegistry;
+import org.david.miscellaneous.metrics.RequestTiming;
+import org.david.miscellaneous.throttling.ConcurrencyLimiter;
+import org.david.miscellaneous.throttling.LoginThrottle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+static final Logger log = LoggerFactory.getLogger("Main");
+static final Duration EMAIL_FILTER_REBUILD_INTERVAL = Duration.ofHours(6);
+static final Duration SESSION_KEY_ROTATION_INTERVAL = Duration.ofHours(12);
+
+/*
+ * FAST_STARTUP=true starts serving before the database is touched: the pools are opened, migrations
+ * run and the hot paths are warmed in the background, and /health/ready turns ready once that is
+ * done. Otherwise the database is set up before the server starts, as a failure should stop the boot.
+ */
+void main() throws Exception {
+    // PASSWORD_HASH_PROFILE takes the value gradle calibratePasswordHash suggests for this hardware
+    final var hashProfile = System.getenv("PASSWORD_HASH_PROFILE");
+    if(hashProfile != null && !hashProfile.isBlank()){
+        CryptManager.configure(HashProfile.parse(hashProfile));
+    }else{
+        log.warn("PASSWORD_HASH_PROFILE is not set, passwords are hashed with {}", CryptManager.defaultProfile());
+    }
+    final var fastStartup = Boolean.parseBoolean(System.getenv("FAST_STARTUP"));
+    final var readiness = new Readiness();
+    final var warmup = new Warmup(readiness);
+    final var maintenance = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().factory());
+    final UserStore userStore = "memory".equalsIgnoreCase(System.getenv("USER_STORE"))
+        ? inMemoryUserStore(maintenance)
+        : postgresUserStore(maintenance, warmup);
+    final var sessionKeyset = System.getenv("SESSION_KEYSET");
+    final var sessionTtl = Duration.ofMinutes(envInt("SESSION_TTL_MINUTES", 15));
+    final var tokenManager = sessionKeyset == null || sessionKeyset.isBlank()
+        ? new TokenManager(sessionTtl)
+        : TokenManager.fromJsonKeyset(sessionTtl, sessionKeyset);
+    final var userHandler = new UserHandlers(userStore, tokenManager);
+    // a shared keyset is rotated by whoever distributes it, rotating here would split the instances
+    if(sessionKeyset == null || sessionKeyset.isBlank()){
+        maintenance.scheduleAtFixedRate(
+            tokenManager::rotateKey,
+            SESSION_KEY_ROTATION_INTERVAL.toMinutes(),
+            SESSION_KEY_ROTATION_INTERVAL.toMinutes(),
+            TimeUnit.MINUTES);
+    }
+
+    final var warmupIterations = envInt("WARMUP_ITERATIONS", 5_000);
+    if(fastStartup){
+        warmup.step("hot-paths", Warmup.hotPaths(userStore, warmupIterations));
+    }else{
+        warmup.run();
+    }
+    final var app = Server.create(userHandler, loginThrottle(), concurrencyLimiter(), requestTiming(), readiness)
+        .start(envInt("PORT", 8081));
+    if(fastStartup){
+        warmup.step("routes", Warmup.routes(URI.create("http://localhost:" + app.port()), warmupIterations / 10));
+        final var warming = warmup.runInBackground();
+        // the training run of the appCdsArchive task, the archive is written as the JVM exits
+        if(Boolean.parseBoolean(System.getenv("EXIT_AFTER_WARMUP"))){
+            warming.join();
+            app.stop();
+            System.exit(readiness.isReady() ? 0 : 1);
+        }
+    }
+}
 
-import static io.javalin.apibuilder.ApiBuilder.*;
+// SERVER_TIMING=true adds the phase breakdown to every response, for trusted clients only
+static RequestTiming.Settings requestTiming() {
+    final var defaults = RequestTiming.Settings.DEFAULTS;
+    return new RequestTiming.Settings(
+        Boolean.parseBoolean(System.getenv("SERVER_TIMING")),
+        Duration.ofMillis(envInt("SLOW_REQUEST_MS", (int) defaults.slowRequestThreshold().toMillis())),
+        envInt("SLOW_REQUEST_LOG_PER_SECOND", defaults.slowRequestLogsPerSecond()));
+}
 
+// CONCURRENCY_LIMIT=false lets every request in, the limit otherwise adapts between the min and max
+static ConcurrencyLimiter concurrencyLimiter() {
+    if("false".equalsIgnoreCase(System.getenv("CONCURRENCY_LIMIT"))){
+        return ConcurrencyLimiter.DISABLED;
+    }
+    final var defaults = ConcurrencyLimiter.Settings.DEFAULTS;
+    return new ConcurrencyLimiter(new ConcurrencyLimiter.Settings(
+        true,
+        envInt("CONCURRENCY_LIMIT_INITIAL", defaults.initialLimit()),
+        envInt("CONCURRENCY_LIMIT_MIN", defaults.minLimit()),
+        envInt("CONCURRENCY_LIMIT_MAX", defaults.maxLimit()),
+        defaults.tolerance()));
+}
 
+// LOGIN_THROTTLE=false turns it off, e.g. behind a gateway that already limits logins
+static LoginThrottle loginThrottle() {
+    if("false".equalsIgnoreCase(System.getenv("LOGIN_THROTTLE"))){
+        return LoginThrottle.DISABLED;
+    }
+    final var defaults = LoginThrottle.Settings.DEFAULTS;
+    return new LoginThrottle(new LoginThrottle.Settings(
+        true,
+        envInt("LOGIN_THROTTLE_CLIENT_PER_MINUTE", (int) defaults.clientRatePerMinute()),
+        envInt("LOGIN_THROTTLE_CLIENT_BURST", defaults.clientBurst()),
+        envInt("LOGIN_THROTTLE_CLIENT_FREE_FAILURES", defaults.clientFreeFailures()),
+        envInt("LOGIN_THROTTLE_ACCOUNT_PER_MINUTE", (int) defaults.accountRatePerMinute()),
+        envInt("LOGIN_THROTTLE_ACCOUNT_BURST", defaults.accountBurst()),
+        envInt("LOGIN_THROTTLE_ACCOUNT_FREE_FAILURES", defaults.accountFreeFailures()),
+        defaults.failureDelay(),
+        defaults.maxFailureDelay(),
+        defaults.idleTimeout(),
+        envInt("LOGIN_THROTTLE_MAX_ENTRIES", defaults.maxEntries())));
+}
 
-void main() {
-    final var db  = DB.instance;
+static UserStore postgresUserStore(ScheduledExecutorService maintenance, Warmup warmup) {
+    final var db  = DB.instance();
     final var userRepository = new UserRepository(db);
-    final var userHandler = new UserHandlers(userRepository);
-
-
-
-    var app = Javalin.create(javalinConfig -> {
-        javalinConfig.useVirtualThreads = true;
-        javalinConfig.router.apiBuilder(() ->
-            path("users", () ->{
-                get("get-all", userHandler::getAllUsers);
-                post("login", ctx -> {
-                    UserValidators.userDtoValidator(ctx);
-                    userHandler.getSingleUser(ctx);
-                });
-                post("create", ctx ->{
-                    UserValidators.userDtoValidator(ctx);
-                    userHandler.createUser(ctx);
-                });
-                patch("update", ctx -> {
-                    UserValidators.userDtoValidator(ctx);
-                    userHandler.updateUser(ctx);
-                });
-        }));
-        javalinConfig.jsonMapper(new JavalinJackson().updateMapper(mapper -> {
-            mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
-            mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-
-        }));
+    // DB_REPLICA_URLS lists the read replicas, see DbConfig
+    final var dbConfig = DbConfig.load();
+    final var replicas = DB.replicas(dbConfig);
+    if(!replicas.isEmpty()){
+        userRepository.enableReadReplicas(
+            replicas,
+            ReplicaRouter.Selection.parse(dbConfig.replicaSelection()),
+            dbConfig.replicaStickyWindow());
+    }
+    // USERS_CACHE_TTL_MS caches users for that long, for a single instance only
+    final var cacheTtl = envInt("USERS_CACHE_TTL_MS", 0);
+    if(cacheTtl > 0){
+        userRepository.enableUserCache(Duration.ofMillis(cacheTtl));
+    }
+    final var groupCommitBatch = envInt("USERS_GROUP_COMMIT_BATCH", 0);
+    if(groupCommitBatch > 0){
+        userRepository.enableGroupCommit(
+            groupCommitBatch,
+            Duration.ofNanos(envInt("USERS_GROUP_COMMIT_DELAY_MICROS", 500) * 1_000L));
+    }
+    // the users.version column comes with schema migration 3
+    if(Boolean.parseBoolean(System.getenv("USERS_OPTIMISTIC_VERSIONING"))){
+        userRepository.enableVersioning();
+    }
+    // creating the DB and the repository did no I/O, this is where the database is first touched
+    warmup.step("database", () -> {
+        db.open();
+        for(final var replica : replicas){
+            replica.open();
+        }
+        if(!"false".equalsIgnoreCase(System.getenv("DB_MIGRATE"))){
+            new SchemaMigrator(db).migrate();
+        }
+        userRepository.checkIndexUsage().forEach(log::warn);
+        // USERS_EMAIL_FILTER=true is for a single writing instance, see UserRepository.rebuildEmailFilter
+        if(Boolean.parseBoolean(System.getenv("USERS_EMAIL_FILTER"))){
+            maintenance.scheduleWithFixedDelay(
+                userRepository::rebuildEmailFilter,
+                0,
+                EMAIL_FILTER_REBUILD_INTERVAL.toMinutes(),
+                TimeUnit.MINUTES);
+        }
     });
-
-    app.exception(ValidationException.class, (e, ctx) -> {
-        var messages = e.getErrors().values().stream()
-            .flatMap(Collection::stream)
-            .map(ValidationError::getMessage)
-            .toList();
-        ctx.status(400).json(Map.of("errors", messages));
-    }).start(8081);
-
-    app.exception(JsonParseException.class, (e, ctx) -> ctx.status(400).json(Map.of("error", e.getMessage())));
-
-    app.exception(HttpCustomException.class, (e, ctx) ->
-        ctx.status(e.statusCode).json(Map.of("error", e.message)));
-
-
+    return userRepository;
 }
 
+// USER_STORE_SNAPSHOT names the file the users are loaded from and periodically saved to
+static UserStore inMemoryUserStore(ScheduledExecutorService maintenance) throws IOException {
+    final var snapshotPath = System.getenv("USER_STORE_SNAPSHOT");
+    if(snapshotPath == null || snapshotPath.isBlank()){
+        log.warn("USER_STORE_SNAPSHOT is not set, users are lost on restart");
+        return registerMetrics(new InMemoryUserStore());
+    }
+    final var snapshot = Path.of(snapshotPath);
+    final var userStore = registerMetrics(Files.exists(snapshot) ? InMemoryUserStore.load(snapshot) : new InMemoryUserStore());
+    log.info("In-memory user store holds {} users", userStore.size());
+    Runnable save = () -> {
+        try {
+            userStore.snapshot(snapshot);
+        } catch (IOException e) {
+            log.error("Could not snapshot the user store to {}", snapshot, e);
+        }
+    };
+    final var interval = envInt("USER_STORE_SNAPSHOT_MINUTES", 5);
+    maintenance.scheduleWithFixedDelay(save, interval, interval, TimeUnit.MINUTES);
+    // the final save waits for a scheduled one that is still running
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        maintenance.shutdown();
+        try {
+            if(!maintenance.awaitTermination(30, TimeUnit.SECONDS)){
+                log.warn("Maintenance tasks still running at shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        save.run();
+    }));
+    return userStore;
+}
 
+// the store is the only one in the process, its gauges can't be taken over by another
+static InMemoryUserStore registerMetrics(InMemoryUserStore userStore) {
+    final var registry = MetricsRegistry.instance;
+    registry.gauge("users_store_users", "Users in the in-memory store", "", userStore::size);
+    registry.gauge("users_store_bytes", "Memory held by the in-memory store", "", userStore::memoryFootprintBytes);
+    registry.gauge("users_store_unreachable_bytes", "Store memory held by replaced hashes until a reload", "", userStore::unreachableBytes);
+    return userStore;
+}
 
-
-
-
-
-
+static int envInt(String name, int defaultValue) {
+    var value = System.getenv(name);
+    return value == null || value.isBlank() ? defaultValue : Integer.parseInt(value.strip());
+}
@@ -6,51 +6,305 @@ import io.agroal.api.configuration.supplier.AgroalConnectionPoolConfigurationSup
 import io.agroal.api.configuration.supplier.AgroalDataSourceConfigurationSupplier;
 import io.agroal.api.security.SimplePassword;
 import org.david.miscellaneous.custom_exceptions.CustomExceptions;
+import org.david.miscellaneous.metrics.LatencyHistogram;
+import org.david.miscellaneous.metrics.MetricsRegistry;
+import org.david.miscellaneous.metrics.RequestTiming;
 import org.jooq.DSLContext;
 import org.jooq.SQLDialect;
 import org.jooq.impl.DSL;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
 import java.sql.SQLException;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+
+/*
+ * Queries go through a fair semaphore sized to the pool before they ask the pool for a connection.
+ * Virtual threads park on it cheaply and in arrival order, wait at most the configured budget and are
+ * turned away at once when the queue is already full, instead of all piling into the pool's
+ * acquisition timeout.
+ */
 public class DB {
-    private static final String DB_URL = "jdbc:postgresql://localhost:5432/umbrella";
-    private static final String DB_USER = "user";
-    private static final String DB_PASSWORD = "user";
-    private  final AgroalDataSource dataSource;
-    public static final DB instance = new DB();
+    private static final Logger log = LoggerFactory.getLogger(DB.class);
+    private static final LatencyHistogram POOL_ACQUIRE = MetricsRegistry.instance.histogram(
+        "db_pool_acquire_seconds", "Time waiting for a pooled connection", "");
+    private static final LatencyHistogram UNNAMED_QUERY = MetricsRegistry.instance.histogram(
+        "db_query_seconds", "Query time once a connection is held", "query=\"unnamed\"");
+    private static final long RETRY_AFTER_SECONDS = 1;
+    private static final String UNIQUE_VIOLATION = "23505";
+    private static final CustomExceptions.ServiceUnavailableException BUSY =
+        new CustomExceptions.ServiceUnavailableException("The database is busy", RETRY_AFTER_SECONDS);
+    private static final CustomExceptions.ServiceUnavailableException NOT_AVAILABLE =
+        new CustomExceptions.ServiceUnavailableException("The database is not available", RETRY_AFTER_SECONDS);
+    private final DbConfig config;
+    private final String metricLabels;
+    private final ReentrantLock opening = new ReentrantLock();
+    private volatile DataSource dataSource;
+    private final SQLDialect dialect;
+    private final Semaphore gate;
+    private final int gatePermits;
+    private final long gateWaitNanos;
+    private final int gateMaxWaiters;
+    private final LongAdder rejected = new LongAdder();
+
+    @FunctionalInterface
+    public interface JdbcWork<T> {
+        T apply(Connection connection) throws SQLException;
+    }
+
+    // created on first use, so loading the class does not open a pool
+    private static final class Holder {
+        private static final DB instance = create(DbConfig.load());
+    }
+
+    public static DB instance(){
+        return Holder.instance;
+    }
+
+    private DB(DataSource dataSource, DbConfig config, String metricLabels, SQLDialect dialect,
+               int gatePermits, Duration gateWait, int gateMaxWaiters){
+        this.dataSource = dataSource;
+        this.config = config;
+        this.metricLabels = metricLabels;
+        this.dialect = dialect;
+        this.gate = new Semaphore(gatePermits, true);
+        this.gatePermits = gatePermits;
+        this.gateWaitNanos = gateWait.toNanos();
+        this.gateMaxWaiters = gateMaxWaiters;
+    }
 
-    private DB(){
+    // the pool is opened by open() or the first query, creating the DB does no I/O
+    public static DB create(DbConfig dbConfig){
+        return create(dbConfig, "");
+    }
+
+    // one DB per replica url, their metrics are labelled replica="1", replica="2"...
+    public static List<DB> replicas(DbConfig dbConfig){
+        var replicas = new ArrayList<DB>(dbConfig.replicaUrls().size());
+        for(var i = 0; i < dbConfig.replicaUrls().size(); i++){
+            replicas.add(create(dbConfig.withUrl(dbConfig.replicaUrls().get(i)), "replica=\"" + (i + 1) + "\""));
+        }
+        return replicas;
+    }
+
+    private static DB create(DbConfig dbConfig, String metricLabels){
+        return new DB(null, dbConfig, metricLabels, SQLDialect.POSTGRES,
+            dbConfig.gatePermits(), dbConfig.gateWait(), dbConfig.gateMaxWaiters());
+    }
+
+    public boolean isOpen(){
+        return dataSource != null;
+    }
+
+    // opens the pool and prewarms it when configured to, a failed attempt is retried by the next call
+    public void open() throws SQLException {
+        if(dataSource != null){
+            return;
+        }
+        opening.lock();
         try{
+            if(dataSource != null){
+                return;
+            }
             var config = new AgroalConnectionFactoryConfigurationSupplier()
-                .jdbcUrl(DB_URL)
-                .principal(() -> DB_USER)
-                .credential(new SimplePassword(DB_PASSWORD))
-                .connectionProviderClassName("org.postgresql.Driver");
+                .jdbcUrl(this.config.url())
+                .principal(this.config::user)
+                .credential(new SimplePassword(this.config.password()))
+                .connectionProviderClassName("org.postgresql.Driver")
+                // repository statements are rendered once, so every one of them is worth a server side prepare
+                .jdbcProperty("prepareThreshold", Integer.toString(this.config.prepareThreshold()))
+                .jdbcProperty("preparedStatementCacheQueries", Integer.toString(this.config.statementCacheQueries()))
+                .jdbcProperty("preparedStatementCacheSizeMiB", Integer.toString(this.config.statementCacheSizeMib()));
             var poolConfig = new AgroalConnectionPoolConfigurationSupplier()
                 .connectionFactoryConfiguration(config)
-                .maxSize(10)
-                .minSize(2)
-                .initialSize(2)
-                .acquisitionTimeout(Duration.ofSeconds(5))
-                .leakTimeout(Duration.ofMinutes(1))
-                .validationTimeout(Duration.ofSeconds(30))
-                .maxLifetime(Duration.ofHours(1));
+                .maxSize(this.config.maxSize())
+                .minSize(this.config.minSize())
+                .initialSize(this.config.minSize())
+                .acquisitionTimeout(this.config.acquisitionTimeout())
+                .leakTimeout(this.config.leakTimeout())
+                .validationTimeout(this.config.validationTimeout())
+                .maxLifetime(this.config.maxLifetime());
             var dataSourceConfig = new AgroalDataSourceConfigurationSupplier()
                 .connectionPoolConfiguration(poolConfig)
-                .metricsEnabled(false);
-            dataSource = AgroalDataSource.from(dataSourceConfig);
-        }catch (SQLException e) {
-            throw new RuntimeException("Failed to initialize database");
+                .metricsEnabled(true);
+            AgroalDataSource agroalDataSource;
+            try{
+                agroalDataSource = AgroalDataSource.from(dataSourceConfig);
+            }catch (SQLException | RuntimeException e){
+                throw new SQLException("Could not open the connection pool for " + this.config.url(), e);
+            }
+            registerMetrics(agroalDataSource, metricLabels);
+            dataSource = agroalDataSource;
+            if(this.config.prewarm()){
+                prewarm(this.config.minSize());
+            }
+        }finally {
+            opening.unlock();
         }
     }
 
+    private DataSource dataSource() throws SQLException {
+        var opened = dataSource;
+        if(opened == null){
+            open();
+            opened = dataSource;
+        }
+        return opened;
+    }
+
+    // for embedded databases in benchmarks and load tests, no gate
+    public static DB using(DataSource dataSource, SQLDialect dialect){
+        return new DB(dataSource, null, "", dialect, Integer.MAX_VALUE, Duration.ZERO, Integer.MAX_VALUE);
+    }
+
+    public static DB using(DataSource dataSource, SQLDialect dialect, int gatePermits, Duration gateWait, int gateMaxWaiters){
+        return new DB(dataSource, null, "", dialect, gatePermits, gateWait, gateMaxWaiters);
+    }
+
+    public SQLDialect dialect(){
+        return dialect;
+    }
+
+    // queries holding or queued for a permit, what least-loaded replica selection compares
+    public int inFlight(){
+        return gatePermits - gate.availablePermits() + gate.getQueueLength();
+    }
+
+    public long rejectedCount(){
+        return rejected.sum();
+    }
+
+    public static LatencyHistogram queryTimer(String queryName) {
+        return MetricsRegistry.instance.histogram(
+            "db_query_seconds", "Query time once a connection is held", "query=\"" + queryName + "\"");
+    }
+
     public <T> T execute(Function<DSLContext,T> f) throws SQLException {
-        try(var connection = dataSource.getConnection()){
-            var dslContext = DSL.using(connection, SQLDialect.POSTGRES);
-            return f.apply(dslContext);
-        }catch (Exception e){
-            throw new CustomExceptions.GenericSQLException("something went wrong");
+        return execute(UNNAMED_QUERY, f);
+    }
+
+    public <T> T execute(LatencyHistogram queryTimer, Function<DSLContext,T> f) throws SQLException {
+        return executeJdbc(queryTimer, connection -> f.apply(DSL.using(connection, dialect)));
+    }
+
+    // plain JDBC on a gated, timed connection, for statements rendered once up front
+    public <T> T executeJdbc(LatencyHistogram queryTimer, JdbcWork<T> work) throws SQLException {
+        var acquireStart = System.nanoTime();
+        enterGate();
+        try{
+            var gateEntered = System.nanoTime();
+            RequestTiming.record(RequestTiming.Phase.DB_GATE, gateEntered - acquireStart);
+            Connection connection;
+            try{
+                connection = dataSource().getConnection();
+            }catch (SQLException e){
+                rejected.increment();
+                log.warn("Could not get a database connection after {} ms", (System.nanoTime() - acquireStart) / 1_000_000, e);
+                throw NOT_AVAILABLE;
+            }
+            try(connection){
+                var queryStart = System.nanoTime();
+                POOL_ACQUIRE.recordNanos(queryStart - acquireStart);
+                RequestTiming.record(RequestTiming.Phase.DB_POOL, queryStart - gateEntered);
+                try {
+                    return work.apply(connection);
+                } finally {
+                    var queryNanos = System.nanoTime() - queryStart;
+                    queryTimer.recordNanos(queryNanos);
+                    RequestTiming.record(RequestTiming.Phase.DB_QUERY, queryNanos);
+                }
+            }catch (Exception e){
+                // an expected outcome of an insert, the caller decides what it means
+                if(isUniqueViolation(e)){
+                    throw e;
+                }
+                log.error("Query failed", e);
+                throw new CustomExceptions.GenericSQLException("something went wrong");
+            }
+        }finally {
+            gate.release();
         }
     }
 
+    // SQLState 23505 in Postgres and H2, also when jOOQ wraps the driver's exception
+    public static boolean isUniqueViolation(Throwable e) {
+        for(var cause = e; cause != null; cause = cause.getCause()){
+            if(cause instanceof SQLException sqlException && UNIQUE_VIOLATION.equals(sqlException.getSQLState())){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * The untimed tryAcquire barges past the queue even on a fair semaphore, so both attempts are timed:
+     * with a zero timeout a free permit is only taken when no one is queued for it.
+     */
+    private void enterGate() {
+        try{
+            if(gate.tryAcquire(0, TimeUnit.NANOSECONDS)){
+                return;
+            }
+            if(gate.getQueueLength() >= gateMaxWaiters){
+                rejected.increment();
+                throw BUSY;
+            }
+            if(gate.tryAcquire(gateWaitNanos, TimeUnit.NANOSECONDS)){
+                return;
+            }
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        rejected.increment();
+        throw BUSY;
+    }
+
+    // opens the pool's connections up front, so the first burst of requests does not pay for them
+    public void prewarm(int connections) {
+        var start = System.nanoTime();
+        var held = new ArrayList<Connection>(connections);
+        try{
+            for(var i = 0; i < connections; i++){
+                held.add(dataSource().getConnection());
+            }
+            log.info("Prewarmed {} database connections in {} ms", held.size(), (System.nanoTime() - start) / 1_000_000);
+        }catch (SQLException e){
+            log.warn("Prewarmed {} of {} database connections, the rest are opened on demand", held.size(), connections, e);
+        }finally {
+            for(var connection : held){
+                try{
+                    connection.close();
+                }catch (SQLException e){
+                    log.debug("Could not return a prewarmed connection", e);
+                }
+            }
+        }
+    }
+
+    private void registerMetrics(AgroalDataSource dataSource, String labels) {
+        var registry = MetricsRegistry.instance;
+        var metrics = dataSource.getMetrics();
+        registry.gauge("db_pool_active_connections", "Connections in use", labels, metrics::activeCount);
+        registry.gauge("db_pool_available_connections", "Idle connections", labels, metrics::availableCount);
+        registry.gauge("db_pool_awaiting_threads", "Threads waiting for a connection", labels, metrics::awaitingCount);
+        registry.gauge("db_pool_max_used_connections", "Peak connections in use", labels, metrics::maxUsedCount);
+        registry.gauge("db_pool_blocking_time_average_seconds", "Average time blocked on acquire", labels,
+            () -> metrics.blockingTimeAverage().toNanos() / 1e9);
+        registry.counter("db_pool_acquire_total", "Connection acquisitions", labels, metrics::acquireCount);
+        registry.counter("db_pool_created_total", "Connections created", labels, metrics::creationCount);
+        registry.counter("db_pool_leak_detections_total", "Connections held past the leak timeout", labels, metrics::leakDetectionCount);
+        registry.gauge("db_gate_waiting_threads", "Threads queued for a database permit", labels, gate::getQueueLength);
+        registry.gauge("db_gate_available_permits", "Free database permits", labels, gate::availablePermits);
+        registry.counter("db_gate_rejected_total", "Queries turned away by the gate or the pool", labels, this::rejectedCount);
+    }
+
 }
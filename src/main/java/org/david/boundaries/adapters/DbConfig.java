@@ -0,0 +1,131 @@
+package org.david.boundaries.adapters;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/*
+ * Pool and gate settings. Read from the properties file named by DB_CONFIG_FILE, every key can be
+ * overridden by its environment variable: db.pool.max-size becomes DB_POOL_MAX_SIZE. Read replicas
+ * get a pool and gate of their own with the same settings and credentials as the primary.
+ */
+public record DbConfig(
+    String url,
+    String user,
+    String password,
+    int maxSize,
+    int minSize,
+    Duration acquisitionTimeout,
+    Duration validationTimeout,
+    Duration leakTimeout,
+    Duration maxLifetime,
+    boolean prewarm,
+    int prepareThreshold,
+    int statementCacheQueries,
+    int statementCacheSizeMib,
+    int gatePermits,
+    Duration gateWait,
+    int gateMaxWaiters,
+    List<String> replicaUrls,
+    String replicaSelection,
+    Duration replicaStickyWindow) {
+
+    public static final String CONFIG_FILE_ENV = "DB_CONFIG_FILE";
+    public static final String ROUND_ROBIN = "round-robin";
+    public static final String LEAST_LOADED = "least-loaded";
+
+    public static DbConfig load() {
+        var env = System.getenv();
+        var file = new Properties();
+        var path = env.get(CONFIG_FILE_ENV);
+        if(path != null && !path.isBlank()){
+            try(Reader reader = Files.newBufferedReader(Path.of(path))){
+                file.load(reader);
+            }catch (IOException e){
+                throw new UncheckedIOException("Could not read the database config " + path, e);
+            }
+        }
+        return from(file, env);
+    }
+
+    public static DbConfig from(Properties file, Map<String, String> env) {
+        var settings = new Settings(file, env);
+        var maxSize = settings.integer("db.pool.max-size", 10);
+        // a fixed size pool by default, connections are not closed and reopened as load comes and goes
+        var minSize = settings.integer("db.pool.min-size", maxSize);
+        var config = new DbConfig(
+            settings.text("db.url", "jdbc:postgresql://localhost:5432/umbrella"),
+            settings.text("db.user", "user"),
+            settings.text("db.password", "user"),
+            maxSize,
+            minSize,
+            settings.millis("db.pool.acquisition-timeout-ms", 5_000),
+            settings.millis("db.pool.validation-timeout-ms", 30_000),
+            settings.millis("db.pool.leak-timeout-ms", 60_000),
+            settings.millis("db.pool.max-lifetime-ms", 3_600_000),
+            Boolean.parseBoolean(settings.text("db.pool.prewarm", "true")),
+            settings.integer("db.jdbc.prepare-threshold", 1),
+            settings.integer("db.jdbc.statement-cache-queries", 256),
+            settings.integer("db.jdbc.statement-cache-size-mib", 5),
+            // one permit per connection keeps waiters in the gate queue rather than inside the pool
+            settings.integer("db.gate.permits", maxSize),
+            settings.millis("db.gate.wait-ms", 1_000),
+            settings.integer("db.gate.max-waiters", 1_000),
+            // comma separated jdbc urls, reads stay on the primary when there are none
+            Arrays.stream(settings.text("db.replica.urls", "").split(","))
+                .map(String::strip)
+                .filter(url -> !url.isEmpty())
+                .toList(),
+            settings.text("db.replica.selection", LEAST_LOADED),
+            // has to cover the replication lag, a user's reads go to the primary this long after their write
+            settings.millis("db.replica.sticky-ms", 2_000));
+        config.validate();
+        return config;
+    }
+
+    // the same settings for another server, how replicas are opened
+    public DbConfig withUrl(String url) {
+        return new DbConfig(url, user, password, maxSize, minSize, acquisitionTimeout, validationTimeout, leakTimeout,
+            maxLifetime, prewarm, prepareThreshold, statementCacheQueries, statementCacheSizeMib, gatePermits, gateWait,
+            gateMaxWaiters, List.of(), replicaSelection, replicaStickyWindow);
+    }
+
+    private void validate() {
+        if(maxSize <= 0 || minSize < 0 || minSize > maxSize){
+            throw new IllegalArgumentException("db.pool sizes must satisfy 0 <= min-size <= max-size and max-size > 0");
+        }
+        if(gatePermits <= 0 || gateMaxWaiters < 0){
+            throw new IllegalArgumentException("db.gate.permits must be positive and db.gate.max-waiters not negative");
+        }
+        if(!ROUND_ROBIN.equals(replicaSelection) && !LEAST_LOADED.equals(replicaSelection)){
+            throw new IllegalArgumentException("db.replica.selection must be " + ROUND_ROBIN + " or " + LEAST_LOADED);
+        }
+    }
+
+    private record Settings(Properties file, Map<String, String> env) {
+        String text(String key, String defaultValue) {
+            var fromEnv = env.get(key.toUpperCase(Locale.ROOT).replace('.', '_').replace('-', '_'));
+            if(fromEnv != null && !fromEnv.isBlank()){
+                return fromEnv.strip();
+            }
+            var fromFile = file.getProperty(key);
+            return fromFile == null || fromFile.isBlank() ? defaultValue : fromFile.strip();
+        }
+
+        int integer(String key, int defaultValue) {
+            return Integer.parseInt(text(key, Integer.toString(defaultValue)));
+        }
+
+        Duration millis(String key, long defaultValue) {
+            return Duration.ofMillis(Long.parseLong(text(key, Long.toString(defaultValue))));
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package org.david.boundaries.adapters;
+
+import org.david.miscellaneous.metrics.MetricsRegistry;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/*
+ * Picks the database a read runs on. Writes always go to the primary, reads go to a replica unless
+ * whoever made the read wrote within the sticky window: a user's own update is then read back from
+ * the primary instead of from a replica that may not have it yet. Reads that belong to no one in
+ * particular, like listing users, stay on the primary for the window after any write, so a snapshot
+ * rendered right after a write does not miss it. The window has to cover the replication lag.
+ */
+public class ReplicaRouter {
+    private static final int MAX_STICKY_KEYS = 100_000;
+
+    public enum Selection {
+        ROUND_ROBIN, LEAST_LOADED;
+
+        public static Selection parse(String value) {
+            return DbConfig.ROUND_ROBIN.equals(value) ? ROUND_ROBIN : LEAST_LOADED;
+        }
+    }
+
+    private final DB primary;
+    private final List<DB> replicas;
+    private final Selection selection;
+    private final long stickyNanos;
+    private final LongSupplier nanoClock;
+    private final AtomicInteger next = new AtomicInteger();
+    // email -> until when its reads go to the primary
+    private final ConcurrentHashMap<String, Long> stickyUntil = new ConcurrentHashMap<>();
+    private final AtomicLong lastWriteAt;
+    // set while the key map is full, every read goes to the primary until then
+    private final AtomicLong allStickyUntil;
+    private final LongAdder primaryReads = new LongAdder();
+    private final LongAdder replicaReads = new LongAdder();
+
+    public ReplicaRouter(DB primary, List<DB> replicas, Selection selection, Duration stickyWindow) {
+        this(primary, replicas, selection, stickyWindow, System::nanoTime);
+        var registry = MetricsRegistry.instance;
+        registry.counter("db_reads_total", "Reads by the database they ran on", "target=\"primary\"", primaryReads::sum);
+        registry.counter("db_reads_total", "Reads by the database they ran on", "target=\"replica\"", replicaReads::sum);
+        registry.gauge("db_sticky_users", "Users whose reads are pinned to the primary after a write", "", stickyUntil::size);
+    }
+
+    public ReplicaRouter(DB primary, List<DB> replicas, Selection selection, Duration stickyWindow, LongSupplier nanoClock) {
+        this.primary = primary;
+        this.replicas = List.copyOf(replicas);
+        this.selection = selection;
+        this.stickyNanos = stickyWindow.toNanos();
+        this.nanoClock = nanoClock;
+        var start = nanoClock.getAsLong() - stickyNanos;
+        this.lastWriteAt = new AtomicLong(start);
+        this.allStickyUntil = new AtomicLong(start);
+    }
+
+    public DB primary() {
+        return primary;
+    }
+
+    // called once the write is committed
+    public void wrote(String key) {
+        var now = nanoClock.getAsLong();
+        lastWriteAt.accumulateAndGet(now, Math::max);
+        if (replicas.isEmpty()) {
+            return;
+        }
+        var until = now + stickyNanos;
+        if (stickyUntil.size() >= MAX_STICKY_KEYS) {
+            stickyUntil.values().removeIf(deadline -> deadline - now <= 0);
+            if (stickyUntil.size() >= MAX_STICKY_KEYS) {
+                allStickyUntil.accumulateAndGet(until, Math::max);
+                return;
+            }
+        }
+        stickyUntil.merge(key, until, Math::max);
+    }
+
+    // for the reads of one user
+    public DB forRead(String key) {
+        if (replicas.isEmpty()) {
+            return primary;
+        }
+        var now = nanoClock.getAsLong();
+        var until = stickyUntil.get(key);
+        if (until != null) {
+            if (until - now > 0) {
+                return onPrimary();
+            }
+            stickyUntil.remove(key, until);
+        }
+        return allStickyUntil.get() - now > 0 ? onPrimary() : onReplica();
+    }
+
+    // for reads that span users
+    public DB forRead() {
+        if (replicas.isEmpty()) {
+            return primary;
+        }
+        return nanoClock.getAsLong() - lastWriteAt.get() < stickyNanos ? onPrimary() : onReplica();
+    }
+
+    private DB onPrimary() {
+        primaryReads.increment();
+        return primary;
+    }
+
+    private DB onReplica() {
+        replicaReads.increment();
+        var start = Math.floorMod(next.getAndIncrement(), replicas.size());
+        if (selection == Selection.ROUND_ROBIN) {
+            return replicas.get(start);
+        }
+        // the rotating start spreads ties instead of always favouring the first replica
+        var chosen = replicas.get(start);
+        for (var i = 1; i < replicas.size(); i++) {
+            var candidate = replicas.get((start + i) % replicas.size());
+            if (candidate.inFlight() < chosen.inFlight()) {
+                chosen = candidate;
+            }
+        }
+        return chosen;
+    }
+}
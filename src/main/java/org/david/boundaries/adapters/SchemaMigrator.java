@@ -0,0 +1,106 @@
+package org.david.boundaries.adapters;
+
+import org.david.miscellaneous.metrics.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/*
+ * Brings the Postgres schema up to date on startup. Applied versions are recorded in schema_version;
+ * pending migrations run in one transaction under an advisory lock, so instances starting together
+ * apply them once and a failing migration leaves the schema as it was. Every statement tolerates
+ * objects that were created by hand before the table was managed.
+ */
+public class SchemaMigrator {
+    private static final Logger log = LoggerFactory.getLogger(SchemaMigrator.class);
+    private static final LatencyHistogram MIGRATE = DB.queryTimer("schema_migrate");
+    // any constant works as long as nothing else in the database locks on it
+    private static final long MIGRATION_LOCK_ID = 0x7573657273L;
+
+    public record Migration(int version, String description, String sql) {
+    }
+
+    public static final List<Migration> MIGRATIONS = List.of(
+        new Migration(1, "create users", """
+            create table if not exists users (
+                id serial primary key,
+                email varchar(255) not null,
+                password varchar(255) not null
+            )"""),
+        new Migration(2, "unique index on lower(email)", """
+            do $$
+            begin
+                if exists (select 1 from users group by lower(email) having count(*) > 1) then
+                    raise exception 'users has emails that differ only in case, merge them before upgrading';
+                end if;
+            end $$;
+            create unique index if not exists users_email_lower_key on users (lower(email))"""),
+        new Migration(3, "optimistic version column", """
+            alter table users add column if not exists version bigint not null default 0"""));
+
+    private final DB db;
+
+    public SchemaMigrator(DB db) {
+        this.db = db;
+    }
+
+    public int migrate() throws SQLException {
+        return db.executeJdbc(MIGRATE, connection -> {
+            var autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                try (var statement = connection.createStatement()) {
+                    statement.execute("select pg_advisory_xact_lock(" + MIGRATION_LOCK_ID + ")");
+                    statement.execute("""
+                        create table if not exists schema_version (
+                            version integer primary key,
+                            description text not null,
+                            applied_at timestamptz not null default now()
+                        )""");
+                }
+                var current = currentVersion(connection);
+                var applied = 0;
+                for (var migration : MIGRATIONS) {
+                    if (migration.version() <= current) {
+                        continue;
+                    }
+                    log.info("Applying schema migration {}: {}", migration.version(), migration.description());
+                    try (var statement = connection.createStatement()) {
+                        statement.execute(migration.sql());
+                    }
+                    try (var statement = connection.prepareStatement(
+                        "insert into schema_version (version, description) values (?, ?)")) {
+                        statement.setInt(1, migration.version());
+                        statement.setString(2, migration.description());
+                        statement.executeUpdate();
+                    }
+                    applied++;
+                }
+                connection.commit();
+                log.info("Schema at version {}, {} migrations applied", Math.max(current, latestVersion()), applied);
+                return applied;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                log.error("Schema migration failed, nothing was applied", e);
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        });
+    }
+
+    public static int latestVersion() {
+        return MIGRATIONS.getLast().version();
+    }
+
+    private static int currentVersion(Connection connection) throws SQLException {
+        try (var statement = connection.createStatement();
+             var rows = statement.executeQuery("select coalesce(max(version), 0) from schema_version")) {
+            rows.next();
+            return rows.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package org.david.boundaries.rest;
+import com.fasterxml.jackson.core.JsonParseException;
+import io.javalin.Javalin;
+import io.javalin.http.ContentType;
+import io.javalin.validation.ValidationError;
+import io.javalin.validation.ValidationException;
+import org.david.boundaries.rest.handlers.UserHandlers;
+import org.david.domain.models.Errors;
+import org.david.miscellaneous.custom_exceptions.CustomExceptions.*;
+import org.david.miscellaneous.custom_exceptions.HttpCustomException;
+import org.david.miscellaneous.health.Readiness;
+import org.david.miscellaneous.metrics.MetricsRegistry;
+import org.david.miscellaneous.metrics.RequestTiming;
+import org.david.miscellaneous.metrics.SlowRequestLog;
+import org.david.miscellaneous.serialization.DeferredJsonMapper;
+import org.david.miscellaneous.serialization.JsonCodecs;
+import org.david.miscellaneous.serialization.JsonMappers;
+import org.david.miscellaneous.throttling.ConcurrencyLimiter;
+import org.david.miscellaneous.throttling.LoginThrottle;
+import org.david.miscellaneous.validators.UserValidators;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+import static io.javalin.apibuilder.ApiBuilder.*;
+import static org.david.miscellaneous.throttling.ConcurrencyLimiter.Priority.*;
+
+/*
+ * Routes and error mapping of the app, kept apart from Main so the load test can boot the same app
+ * over a different repository backend.
+ */
+public class Server {
+    private static final String PERMIT_STARTED_AT = "concurrencyPermitStartedAt";
+    private static final String ENDPOINT = "endpoint";
+    private static final String REQUEST_TIMING = "requestTiming";
+    private static final long RETRY_AFTER_SECONDS = 1;
+    private static final ServiceUnavailableException OVERLOADED =
+        new ServiceUnavailableException("The server is overloaded, try again later", RETRY_AFTER_SECONDS);
+    private static final byte[] LIVE = "{\"status\":\"live\"}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] READY = "{\"status\":\"ready\"}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] STARTING = "{\"status\":\"starting\"}".getBytes(StandardCharsets.UTF_8);
+
+    public static Javalin create(UserHandlers userHandler, LoginThrottle loginThrottle, ConcurrencyLimiter concurrencyLimiter,
+                                 RequestTiming.Settings timingSettings, Readiness readiness) {
+        var slowRequestLog = new SlowRequestLog(timingSettings.slowRequestThreshold(), timingSettings.slowRequestLogsPerSecond());
+        var app = Javalin.create(javalinConfig -> {
+            javalinConfig.useVirtualThreads = true;
+            javalinConfig.requestLogger.http((ctx, executionTimeMs) -> MetricsRegistry.instance.recordRequest(
+                ctx.method(), ctx.matchedPath(), ctx.statusCode(), (long) (executionTimeMs * 1_000)));
+            javalinConfig.router.apiBuilder(() -> {
+                // probes have no priority so the limiter never sheds them, an overloaded instance is still alive
+                path("health", () -> {
+                    get("live", ctx -> ctx.contentType(ContentType.APPLICATION_JSON).result(LIVE));
+                    get("ready", ctx -> {
+                        if(readiness.isReady()){
+                            ctx.contentType(ContentType.APPLICATION_JSON).result(READY);
+                            return;
+                        }
+                        ctx.header("Retry-After", Long.toString(RETRY_AFTER_SECONDS));
+                        ctx.status(503).contentType(ContentType.APPLICATION_JSON).result(STARTING);
+                    });
+                });
+                // the role is the priority under load: sheddable routes get turned away first
+                get("metrics", ctx -> ctx.contentType(MetricsRegistry.CONTENT_TYPE).result(MetricsRegistry.instance.scrape()), CRITICAL);
+                path("users", () ->{
+                    get("get-all", userHandler::getAllUsers, SHEDDABLE);
+                    get("stream", userHandler::streamUsers, SHEDDABLE);
+                    // the client is throttled before the body is read, the account before the user is looked up
+                    before("login", ctx -> loginThrottle.checkClient(ctx.ip()));
+                    post("login", ctx -> {
+                        var user = UserValidators.userDtoValidator(ctx);
+                        loginThrottle.checkAccount(user.email());
+                        try {
+                            userHandler.getSingleUser(ctx);
+                        } catch (InvalidPasswordException | ElementDoNotExistException e) {
+                            loginThrottle.recordResult(ctx.ip(), user.email(), false);
+                            throw e;
+                        }
+                        loginThrottle.recordResult(ctx.ip(), user.email(), true);
+                    }, CRITICAL);
+                    post("create", ctx ->{
+                        UserValidators.userDtoValidator(ctx);
+                        userHandler.createUser(ctx);
+                    }, NORMAL);
+                    post("bulk-create", userHandler::bulkCreateUsers, SHEDDABLE);
+                    get("session", userHandler::getSession, CRITICAL);
+                    post("logout", userHandler::logout, CRITICAL);
+                    patch("update", ctx -> {
+                        UserValidators.userDtoValidator(ctx);
+                        userHandler.updateUser(ctx);
+                    }, NORMAL);
+                });
+            });
+            javalinConfig.jsonMapper(new DeferredJsonMapper(JsonMappers::javalinJackson));
+        });
+
+        // registered first so requests shed by the limiter are timed as well
+        app.beforeMatched(ctx -> {
+            // only here is this the endpoint, in the after handlers it is their own "*" path
+            ctx.attribute(ENDPOINT, ctx.endpointHandlerPath());
+            ctx.attribute(REQUEST_TIMING, RequestTiming.start());
+        });
+
+        app.beforeMatched(ctx -> {
+            var priority = ctx.routeRoles().stream()
+                .filter(ConcurrencyLimiter.Priority.class::isInstance)
+                .map(ConcurrencyLimiter.Priority.class::cast)
+                .findFirst()
+                .orElse(null);
+            if(priority == null){
+                return;
+            }
+            if(!concurrencyLimiter.tryAcquire(priority)){
+                throw OVERLOADED;
+            }
+            ctx.attribute(PERMIT_STARTED_AT, System.nanoTime());
+        });
+
+        // runs after exceptions too, requests rejected before they got a permit have nothing to release
+        app.afterMatched(ctx -> {
+            Long startedAt = ctx.attribute(PERMIT_STARTED_AT);
+            if(startedAt != null){
+                concurrencyLimiter.release(ctx.attribute(ENDPOINT), System.nanoTime() - startedAt);
+            }
+        });
+
+        // a streamed body is already on its way, the header can only go on responses still buffered
+        app.afterMatched(ctx -> {
+            RequestTiming timing = ctx.attribute(REQUEST_TIMING);
+            if(timing == null){
+                return;
+            }
+            ctx.attribute(REQUEST_TIMING, null);
+            if(timingSettings.serverTimingHeader() && !ctx.res().isCommitted()){
+                ctx.header("Server-Timing", timing.serverTiming());
+            }
+            slowRequestLog.record(ctx.method().name(), ctx.attribute(ENDPOINT), ctx.statusCode(), timing);
+            RequestTiming.finish(timing);
+        });
+
+        app.exception(ValidationException.class, (e, ctx) -> {
+            var messages = e.getErrors().values().stream()
+                .flatMap(Collection::stream)
+                .map(ValidationError::getMessage)
+                .toList();
+            JsonCodecs.respond(ctx, 400, JsonCodecs.ERRORS_WRITER, new Errors(messages));
+        });
+
+        app.exception(JsonParseException.class, (e, ctx) -> JsonCodecs.respond(ctx, 400, JsonCodecs.ERROR_MESSAGE, e.getMessage()));
+
+        app.exception(HttpCustomException.class, (e, ctx) -> {
+            if(e.retryAfterSeconds > 0){
+                ctx.header("Retry-After", Long.toString(e.retryAfterSeconds));
+            }
+            ctx.status(e.statusCode).contentType(ContentType.APPLICATION_JSON).result(e.body());
+        });
+        return app;
+    }
+}
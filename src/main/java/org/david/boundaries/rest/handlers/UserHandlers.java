@@ -1,75 +1,307 @@
 package org.david.boundaries.rest.handlers;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import io.javalin.http.ContentType;
 import io.javalin.http.Context;
+import io.javalin.http.Header;
 import org.david.boundaries.adapters.UserEntity;
 import org.david.domain.models.ResponseModel;
 import org.david.domain.models.UserModels;
-import org.david.domain.repository.UserRepository;
+import org.david.domain.models.UserModels.InsertOutcome;
+import org.david.domain.repository.UserStore;
+import org.david.miscellaneous.cache.ResponseSnapshot;
 import org.david.miscellaneous.custom_exceptions.CustomExceptions.*;
 import org.david.miscellaneous.criptography.CryptManager;
+import org.david.miscellaneous.criptography.HashExecutor;
+import org.david.miscellaneous.criptography.TokenManager;
+import org.david.miscellaneous.serialization.JsonCodecs;
+import org.david.miscellaneous.validators.UserValidators;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
+import java.time.Duration;
 
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class UserHandlers {
-    private static final ObjectMapper json = new ObjectMapper();
-    private final UserRepository userRepository;
+    private static final Logger log = LoggerFactory.getLogger(UserHandlers.class);
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final byte[] USER_CREATED = "{\"Message\":\"User created successfully\"}".getBytes(StandardCharsets.UTF_8);
+    private static final Duration DEFAULT_SESSION_TTL = Duration.ofMinutes(15);
+    private static final String BEARER_PREFIX = "Bearer ";
+    // the data version only sees this instance's writes, other instances' show up within this
+    private static final Duration USERS_SNAPSHOT_MAX_AGE = Duration.ofSeconds(5);
+    // the failures a credential stuffing run produces, thrown as shared constants
+    private static final InvalidPasswordException PASSWORDS_DO_NOT_MATCH = new InvalidPasswordException("The passwords do not match");
+    private static final ElementDoNotExistException USER_DOES_NOT_EXIST = new ElementDoNotExistException("The user does not exist");
+    private static final ConflictException USER_ALREADY_EXISTS = new ConflictException("The user already exists");
+    private static final UnauthorizedException BEARER_TOKEN_REQUIRED = new UnauthorizedException("A bearer token is required");
+    private static final UnauthorizedException SESSION_INVALID = new UnauthorizedException("The session is invalid or expired");
+    private final UserStore userStore;
+    private final TokenManager tokenManager;
+    private final Set<Integer> rehashing = ConcurrentHashMap.newKeySet();
+    private final ResponseSnapshot allUsers;
 
 
-    public UserHandlers(UserRepository userRepository) {
-        this.userRepository = userRepository;
+    public UserHandlers(UserStore userStore) {
+        this(userStore, new TokenManager(DEFAULT_SESSION_TTL));
+    }
+
+    public UserHandlers(UserStore userStore, TokenManager tokenManager) {
+        this.userStore = userStore;
+        this.tokenManager = tokenManager;
+        this.allUsers = new ResponseSnapshot(userStore::dataVersion, USERS_SNAPSHOT_MAX_AGE, this::renderAllUsers);
     }
 
     public void getAllUsers(Context ctx) throws SQLException {
-        var users = userRepository.getUsers()
+        if(ctx.queryParam("after") != null || ctx.queryParam("limit") != null){
+            getUsersPage(ctx);
+            return;
+        }
+        // dashboards poll this, an unchanged table is answered from the snapshot or with a 304
+        var snapshot = allUsers.get();
+        ctx.header(Header.ETAG, snapshot.etag());
+        ctx.header(Header.CACHE_CONTROL, "no-cache");
+        ctx.header(Header.VARY, Header.ACCEPT_ENCODING);
+        if(ResponseSnapshot.matches(ctx.header(Header.IF_NONE_MATCH), snapshot.etag())){
+            ctx.status(304);
+            return;
+        }
+        ctx.status(200);
+        ctx.contentType(ContentType.APPLICATION_JSON);
+        if(acceptsGzip(ctx.header(Header.ACCEPT_ENCODING))){
+            ctx.header(Header.CONTENT_ENCODING, "gzip");
+            ctx.result(snapshot.gzip());
+        }else{
+            ctx.result(snapshot.identity());
+        }
+    }
+
+    private byte[] renderAllUsers(){
+        var users = userStore.getUsers()
             .stream()
             .map(UserEntity::mapToUserDTO)
             .toList();
-        ctx.json(Map.of("users", new ResponseModel<>(users, null))).status(200);
+        return JsonCodecs.bytes(generator -> JsonCodecs.writeResponse(generator, "users", new ResponseModel<>(users, null), JsonCodecs.USER_LIST));
+    }
+
+    // gzip listed without q=0
+    private static boolean acceptsGzip(String acceptEncoding){
+        if(acceptEncoding == null){
+            return false;
+        }
+        for(var coding : acceptEncoding.split(",")){
+            var parts = coding.split(";");
+            if(parts[0].strip().equalsIgnoreCase("gzip")){
+                return parts.length == 1 || !parts[1].replace(" ", "").matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    public void getUsersPage(Context ctx) {
+        var after = ctx.queryParamAsClass("after", Integer.class)
+            .check(id -> id >= 0, "after must be a positive id")
+            .getOrDefault(0);
+        var limit = ctx.queryParamAsClass("limit", Integer.class)
+            .check(size -> size > 0 && size <= MAX_PAGE_SIZE, "limit must be between 1 and " + MAX_PAGE_SIZE)
+            .getOrDefault(DEFAULT_PAGE_SIZE);
+        // one extra row tells us whether there is a next page without a second query
+        var rows = userStore.getUsersPage(after, limit + 1);
+        var users = rows.stream()
+            .limit(limit)
+            .map(UserEntity::mapToUserDTO)
+            .toList();
+        var nextCursor = rows.size() > limit ? users.getLast().id() : null;
+        JsonCodecs.respond(ctx, 200, "users", new ResponseModel<>(new UserModels.Page(users, nextCursor), null), JsonCodecs.PAGE);
     }
-    public void getSingleUser(Context ctx) throws JsonProcessingException, SQLException {
-        var userDto = json.readValue(ctx.body(),UserModels.User.class);
+
+    public void streamUsers(Context ctx) throws IOException {
+        ctx.status(200).contentType("application/x-ndjson");
+        // the generator buffers on its own and flushes to the stream as its buffer fills up
+        try (var generator = JsonCodecs.generator(ctx.outputStream())) {
+            generator.setRootValueSeparator(null);
+            userStore.streamUsers(user -> {
+                try {
+                    JsonCodecs.writeUser(generator, user.mapToUserDTO());
+                    generator.writeRaw('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+    public void getSingleUser(Context ctx) throws SQLException {
+        var userDto = UserValidators.boundUser(ctx);
         var userEntity = findSingleUser(userDto.email());
-        var isVerified = CryptManager.verifyPassword(userDto.password(), userEntity.password);
+        var isVerified = HashExecutor.instance.verify(userDto.password(), userEntity.password);
         if(isVerified){
-            ctx.json(Map.of("data", new ResponseModel<>(userEntity.mapToUserDTO(), null)));
+            if(CryptManager.needsRehash(userEntity.password)){
+                rehashInBackground(userDto.password(), userEntity);
+            }
+            var token = tokenManager.issue(userEntity.id, userEntity.email);
+            JsonCodecs.respond(ctx, 200, generator -> {
+                JsonCodecs.writeResponse(generator, "data", new ResponseModel<>(userEntity.mapToUserDTO(), null), JsonCodecs.USER);
+                generator.writeFieldName("session");
+                JsonCodecs.SESSION.write(generator, new UserModels.Session(token.token(), token.expiresAt()));
+            });
             return;
         }
-        throw new InvalidPasswordException("The passwords do not match");
+        throw PASSWORDS_DO_NOT_MATCH;
+
+    }
 
+    public void getSession(Context ctx) {
+        var claims = authenticate(ctx);
+        JsonCodecs.respond(ctx, 200, "data", new ResponseModel<>(new UserModels.User(claims.userId(), claims.email(), null), null), JsonCodecs.USER);
     }
-    public void createUser(Context ctx) throws JsonProcessingException {
-        var body = ctx.body();
-        var newUser = json.readValue(body, UserModels.User.class);
+
+    public void logout(Context ctx) {
+        var claims = authenticate(ctx);
+        tokenManager.revoke(claims.userId());
+        ctx.status(204);
+    }
+
+    private TokenManager.Claims authenticate(Context ctx) {
+        var authorization = ctx.header("Authorization");
+        if(authorization == null || !authorization.startsWith(BEARER_PREFIX)){
+            throw BEARER_TOKEN_REQUIRED;
+        }
+        return tokenManager.verify(authorization.substring(BEARER_PREFIX.length()).strip())
+            .orElseThrow(() -> SESSION_INVALID);
+    }
+    public void createUser(Context ctx) {
+        var newUser = UserValidators.boundUser(ctx);
         var newUserHP = newUser.withHashedPassword();
-        var res = userRepository.createUser(newUserHP);
+        var res = userStore.createUser(newUserHP);
         if(res ==1){
-            ctx.status(201).json(Map.of("Message", "User created successfully"));
+            ctx.status(201);
+            ctx.contentType(ContentType.APPLICATION_JSON);
+            ctx.result(USER_CREATED);
             return;
         }
-        throw new FailedToCreateUserException("Could not create user");
+        throw USER_ALREADY_EXISTS;
+    }
+
+    public void bulkCreateUsers(Context ctx) {
+        var users = UserValidators.bulkUserDtoParser(ctx);
+        if(users.isEmpty()){
+            throw new InvalidBodyException("The body must contain at least one user");
+        }
+        var results = new UserModels.BulkRowResult[users.size()];
+        var accepted = new ArrayList<Integer>(users.size());
+        var seenEmails = new HashSet<String>();
+        for (var i = 0; i < users.size(); i++) {
+            var user = users.get(i);
+            if(!UserValidators.isValidUser(user)){
+                var email = user == null ? null : user.email();
+                results[i] = new UserModels.BulkRowResult(i, email, InsertOutcome.INVALID, "Email and password can't be null or blank");
+            } else if(!seenEmails.add(UserStore.normalizeEmail(user.email()))){
+                results[i] = new UserModels.BulkRowResult(i, user.email(), InsertOutcome.CONFLICT, "Email repeated in the request");
+            } else {
+                accepted.add(i);
+            }
+        }
+        // hashing dominates the cost of a bulk load, spread it over the crypt pool
+        var hashes = HashExecutor.instance.hashAll(accepted.stream()
+            .map(index -> users.get(index).password())
+            .toList());
+        var hashedUsers = new ArrayList<UserModels.User>(accepted.size());
+        for (var i = 0; i < accepted.size(); i++) {
+            hashedUsers.add(users.get(accepted.get(i)).withPassword(hashes.get(i)));
+        }
+        var outcomes = hashedUsers.isEmpty() ? List.<InsertOutcome>of() : userStore.createUsers(hashedUsers);
+        for (var i = 0; i < outcomes.size(); i++) {
+            var index = accepted.get(i);
+            var outcome = outcomes.get(i);
+            var error = switch (outcome) {
+                case CONFLICT -> "The user already exists";
+                case FAILED -> "Could not create user";
+                default -> null;
+            };
+            results[index] = new UserModels.BulkRowResult(index, hashedUsers.get(i).email(), outcome, error);
+        }
+        var rows = List.of(results);
+        var report = new UserModels.BulkReport(
+            count(rows, InsertOutcome.CREATED),
+            count(rows, InsertOutcome.CONFLICT),
+            count(rows, InsertOutcome.INVALID),
+            count(rows, InsertOutcome.FAILED),
+            rows);
+        JsonCodecs.respond(ctx, 200, "data", new ResponseModel<>(report, null), JsonCodecs.reflective());
     }
 
-    public void updateUser(Context ctx) throws JsonProcessingException, SQLException {
-        var userDomain = json
-            .readValue(ctx.body(),UserModels.User.class)
-            .withHashedPassword();
-        var user = findSingleUser(userDomain.email());
-        user.email = userDomain.email();
-        user.password = userDomain.password();
-        var res = userRepository.updateUser(user);
+    public void updateUser(Context ctx) {
+        var userDomain = UserValidators.boundUser(ctx);
+        var expectedVersion = expectedVersion(ctx);
+        var hashed = userDomain.withHashedPassword();
+        var result = userStore.updatePassword(hashed.email(), hashed.password(), expectedVersion);
+        switch (result.outcome()) {
+            case UPDATED -> {
+                // sessions issued under the old password end with it
+                tokenManager.revoke(result.user().id);
+                if(result.version() != null){
+                    ctx.header("ETag", "\"" + result.version() + "\"");
+                }
+                JsonCodecs.respond(ctx, 200, "data", new ResponseModel<>(result.user().mapToUserDTO(), null), JsonCodecs.USER);
+            }
+            case NOT_FOUND -> throw USER_DOES_NOT_EXIST;
+            case VERSION_CONFLICT -> throw new ConflictException("The user was changed by another request, current version " + result.version());
+        }
+    }
 
-        if(res.isPresent()){
-            ctx.json(Map.of("data", new ResponseModel<>(res.get(),null)));
+    // If-Match carries the version from a previous ETag, "*" or no header means any version
+    private Long expectedVersion(Context ctx){
+        var ifMatch = ctx.header("If-Match");
+        if(ifMatch == null || ifMatch.isBlank() || ifMatch.strip().equals("*")){
+            return null;
+        }
+        if(!userStore.versioningEnabled()){
+            throw new InvalidBodyException("If-Match is not supported, optimistic versioning is disabled");
+        }
+        var tag = ifMatch.strip();
+        if(tag.startsWith("W/")){
+            tag = tag.substring(2);
+        }
+        tag = tag.replace("\"", "");
+        try {
+            return Long.parseLong(tag);
+        } catch (NumberFormatException e) {
+            throw new InvalidBodyException("If-Match must be a version returned in an ETag");
+        }
+    }
+
+    private void rehashInBackground(String password, UserEntity userEntity){
+        if(!rehashing.add(userEntity.id)){
             return;
         }
-        throw new DataIntegrityException("User could not be updated");
+        Thread.ofVirtual().start(() -> {
+            try {
+                // a busy crypt pool drops the upgrade, the next login tries again
+                HashExecutor.instance.hashIfIdle(password)
+                    .ifPresent(newHash -> userStore.rehashPassword(userEntity, newHash));
+            } catch (RuntimeException e) {
+                log.warn("Could not upgrade the password hash of user {}, retrying on the next login", userEntity.id, e);
+            } finally {
+                rehashing.remove(userEntity.id);
+            }
+        });
     }
+
+    private static int count(List<UserModels.BulkRowResult> rows, InsertOutcome outcome){
+        return (int) rows.stream().filter(row -> row.status() == outcome).count();
+    }
+
     private  UserEntity findSingleUser(String email) throws  SQLException {
-        return userRepository.getSingleUser(email)
-            .orElseThrow(() -> new ElementDoNotExistException("The user does not exist"));
+        return userStore.getSingleUser(email)
+            .orElseThrow(() -> USER_DOES_NOT_EXIST);
     }
 
 }
@@ -1,14 +1,29 @@
 package org.david.domain.models;
 
-import org.david.miscellaneous.criptography.CryptManager;
+import org.david.miscellaneous.criptography.HashExecutor;
+
+import java.util.List;
 
 
 public interface UserModels {
     record User(Integer id, String email, String password){
         public User withHashedPassword(){
-            var hashedPassword = CryptManager.hashPassword(password);
-            return new User(id, email, hashedPassword);
+            var hashedPassword = HashExecutor.instance.hash(password);
+            return withPassword(hashedPassword);
+        }
+        public User withPassword(String newPassword){
+            return new User(id, email, newPassword);
         }
     }
+    record Session(String token, long expiresAt){
+    }
+    record Page(List<User> users, Integer nextCursor){
+    }
+    enum InsertOutcome { CREATED, CONFLICT, INVALID, FAILED }
+    enum UpdateOutcome { UPDATED, NOT_FOUND, VERSION_CONFLICT }
+    record BulkRowResult(int index, String email, InsertOutcome status, String error){
+    }
+    record BulkReport(int created, int conflicts, int invalid, int failed, List<BulkRowResult> rows){
+    }
 
 }
@@ -0,0 +1,124 @@
+package org.david.domain.repository;
+import module java.base;
+import org.david.domain.models.UserModels.*;
+import org.david.miscellaneous.custom_exceptions.CustomExceptions.ServiceUnavailableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * Coalesces concurrent single inserts into one multi-row statement. Callers park on their own future
+ * while a single writer drains the queue, flushing when the batch is full or the oldest pending insert
+ * has waited maxDelay, so a signup spike needs one connection instead of one per request.
+ */
+public class GroupCommitWriter implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(GroupCommitWriter.class);
+    private static final int QUEUE_BATCHES = 64;
+    private static final long IDLE_POLL_MILLIS = 100;
+    private static final ServiceUnavailableException CLOSED =
+        new ServiceUnavailableException("The server is shutting down, try again", 1);
+
+    private final BlockingQueue<PendingInsert> queue;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final Function<List<User>, List<InsertOutcome>> flusher;
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder flushedUsers = new LongAdder();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private record PendingInsert(User user, CompletableFuture<InsertOutcome> result) {
+    }
+
+    public record Stats(long flushes, long flushedUsers, int pending) {
+    }
+
+    public GroupCommitWriter(int maxBatchSize, Duration maxDelay, Function<List<User>, List<InsertOutcome>> flusher) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize must be positive");
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.flusher = flusher;
+        this.queue = new ArrayBlockingQueue<>(maxBatchSize * QUEUE_BATCHES);
+        this.writer = Thread.ofVirtual().name("users-group-commit").start(this::run);
+    }
+
+    public CompletableFuture<InsertOutcome> submit(User user) {
+        var pending = new PendingInsert(user, new CompletableFuture<>());
+        if (!running) {
+            pending.result().completeExceptionally(CLOSED);
+            return pending.result();
+        }
+        try {
+            queue.put(pending);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pending.result().completeExceptionally(CLOSED);
+        }
+        // closed while it was queued, the writer may already be gone
+        if (!running && !writer.isAlive()) {
+            failQueued();
+        }
+        return pending.result();
+    }
+
+    public Stats stats() {
+        return new Stats(flushes.sum(), flushedUsers.sum(), queue.size());
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        running = false;
+        writer.join();
+        failQueued();
+    }
+
+    // an interrupted writer fails what it holds and what is queued, no caller is left waiting on join()
+    private void run() {
+        var batch = new ArrayList<PendingInsert>(maxBatchSize);
+        try {
+            while (running || !queue.isEmpty()) {
+                var first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                var deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < maxBatchSize) {
+                    var remaining = deadline - System.nanoTime();
+                    var next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            running = false;
+            batch.forEach(pending -> pending.result().completeExceptionally(CLOSED));
+            failQueued();
+        }
+    }
+
+    private void failQueued() {
+        for (var pending = queue.poll(); pending != null; pending = queue.poll()) {
+            pending.result().completeExceptionally(CLOSED);
+        }
+    }
+
+    private void flush(List<PendingInsert> batch) {
+        try {
+            var outcomes = flusher.apply(batch.stream().map(PendingInsert::user).toList());
+            for (var i = 0; i < batch.size(); i++) {
+                batch.get(i).result().complete(outcomes.get(i));
+            }
+            flushes.increment();
+            flushedUsers.add(batch.size());
+        } catch (Exception e) {
+            log.warn("Group commit of {} users failed", batch.size(), e);
+            batch.forEach(pending -> pending.result().completeExceptionally(e));
+        }
+    }
+}
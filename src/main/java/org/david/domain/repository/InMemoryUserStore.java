@@ -0,0 +1,471 @@
+package org.david.domain.repository;
+import module java.base;
+import org.david.boundaries.adapters.UserEntity;
+import org.david.domain.models.UserModels.*;
+
+/*
+ * Users kept in process without an object per user. Every user is a slot: four longs in a paged column
+ * (seqlock stamp, email ref, hash ref, version) and its email and hash bytes in an off-heap append only
+ * arena, the id is the slot + 1. An open addressing table maps the hash of the normalized email to the
+ * slot. Reads take no locks, they retry while a record's stamp is odd; writers are serialized per email
+ * stripe, and only growing the email table stops inserts for a moment.
+ * Replaced hashes stay in the arena until the store is reloaded from a snapshot, unreachableBytes()
+ * tells how much that is. Metrics are left to the owner, a second store must not take over the gauges.
+ */
+public class InMemoryUserStore implements UserStore {
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int MAX_PAGES = 1 << 16;
+    private static final int STAMP = 0;
+    private static final int EMAIL = 1;
+    private static final int HASH = 2;
+    private static final int VERSION = 3;
+    private static final int FIELDS = 4;
+    private static final int STRIPES = 64;
+    private static final int INITIAL_INDEX_CAPACITY = 1 << 12;
+    private static final int SNAPSHOT_MAGIC = 0x55535253;
+    private static final int SNAPSHOT_FORMAT = 1;
+
+    private final AtomicReferenceArray<AtomicLongArray> pages = new AtomicReferenceArray<>(MAX_PAGES);
+    private final AtomicInteger slots = new AtomicInteger();
+    private final AtomicInteger indexed = new AtomicInteger();
+    private final AtomicLong dataVersion = new AtomicLong();
+    private final ByteArena arena = new ByteArena();
+    // arena bytes of hashes that were replaced, only a reload frees them
+    private final LongAdder unreachableBytes = new LongAdder();
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    private final ReentrantReadWriteLock indexGrowth = new ReentrantReadWriteLock();
+    // snapshots share the temporary file, one at a time
+    private final ReentrantLock snapshotting = new ReentrantLock();
+    // cells hold the email hash in the high half and slot + 1 in the low half, 0 is empty
+    private volatile AtomicLongArray index = new AtomicLongArray(INITIAL_INDEX_CAPACITY);
+
+    private record Row(int slot, long emailRef, long hashRef, long version) {
+    }
+
+    public InMemoryUserStore() {
+        for (var i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    public int size() {
+        return indexed.get();
+    }
+
+    public long memoryFootprintBytes() {
+        var pageCount = (slots.get() + PAGE_SIZE - 1) >>> PAGE_BITS;
+        return (long) pageCount * PAGE_SIZE * FIELDS * Long.BYTES
+            + (long) index.length() * Long.BYTES
+            + arena.reservedBytes();
+    }
+
+    public long unreachableBytes() {
+        return unreachableBytes.sum();
+    }
+
+    @Override
+    public int createUser(User newUser) {
+        if (!insert(newUser.email(), newUser.password())) {
+            return 0;
+        }
+        dataVersion.incrementAndGet();
+        return 1;
+    }
+
+    @Override
+    public List<InsertOutcome> createUsers(List<User> newUsers) {
+        var outcomes = new ArrayList<InsertOutcome>(newUsers.size());
+        for (var user : newUsers) {
+            outcomes.add(insert(user.email(), user.password()) ? InsertOutcome.CREATED : InsertOutcome.CONFLICT);
+        }
+        if (outcomes.contains(InsertOutcome.CREATED)) {
+            dataVersion.incrementAndGet();
+        }
+        return outcomes;
+    }
+
+    @Override
+    public UpdateResult updatePassword(String email, String passwordHash, Long expectedVersion) {
+        var key = UserStore.normalizeEmail(email);
+        var hash = hashOf(key);
+        var stripe = stripeOf(hash);
+        stripe.lock();
+        try {
+            var row = find(key, hash);
+            if (row == null) {
+                return new UpdateResult(UpdateOutcome.NOT_FOUND, null, null);
+            }
+            if (expectedVersion != null && row.version() != expectedVersion) {
+                return new UpdateResult(UpdateOutcome.VERSION_CONFLICT, null, row.version());
+            }
+            var version = row.version() + 1;
+            writeRow(row.slot(), row.emailRef(), arena.append(bytesOf(passwordHash)), version);
+            unreachableBytes.add(ByteArena.length(row.hashRef()));
+            dataVersion.incrementAndGet();
+            var user = new UserEntity(row.slot() + 1, arena.readString(row.emailRef()), passwordHash);
+            return new UpdateResult(UpdateOutcome.UPDATED, user, version);
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    @Override
+    public boolean versioningEnabled() {
+        return true;
+    }
+
+    @Override
+    public long dataVersion() {
+        return dataVersion.get();
+    }
+
+    @Override
+    public boolean rehashPassword(UserEntity user, String newPasswordHash) {
+        var key = UserStore.normalizeEmail(user.email);
+        var hash = hashOf(key);
+        var stripe = stripeOf(hash);
+        stripe.lock();
+        try {
+            var row = find(key, hash);
+            if (row == null || row.slot() + 1 != user.id || !arena.readString(row.hashRef()).equals(user.password)) {
+                return false;
+            }
+            // a rehash is not a change the user made, the version stays
+            writeRow(row.slot(), row.emailRef(), arena.append(bytesOf(newPasswordHash)), row.version());
+            unreachableBytes.add(ByteArena.length(row.hashRef()));
+            return true;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    @Override
+    public List<UserEntity> getUsers() {
+        var users = new ArrayList<UserEntity>(size());
+        streamUsers(users::add);
+        return users;
+    }
+
+    @Override
+    public List<UserEntity> getUsersPage(int afterId, int limit) {
+        var users = new ArrayList<UserEntity>(limit);
+        var end = slots.get();
+        for (var slot = Math.max(afterId, 0); slot < end && users.size() < limit; slot++) {
+            var row = readRow(slot);
+            if (row != null) {
+                users.add(toEntity(row));
+            }
+        }
+        return users;
+    }
+
+    @Override
+    public long streamUsers(Consumer<UserEntity> consumer) {
+        var count = 0L;
+        var end = slots.get();
+        for (var slot = 0; slot < end; slot++) {
+            var row = readRow(slot);
+            if (row != null) {
+                consumer.accept(toEntity(row));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public Optional<UserEntity> getSingleUser(String email) {
+        var key = UserStore.normalizeEmail(email);
+        var row = find(key, hashOf(key));
+        return row == null ? Optional.empty() : Optional.of(toEntity(row));
+    }
+
+    /*
+     * Writes every user to a temporary file that then replaces the target. Each record is read
+     * consistently, users created while the snapshot runs may or may not be in it. Concurrent snapshots
+     * wait for each other, so they never interleave in the temporary file.
+     */
+    public long snapshot(Path file) throws IOException {
+        snapshotting.lock();
+        try {
+            var temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            var written = 0L;
+            try (var channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                 var out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16))) {
+                var end = slots.get();
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_FORMAT);
+                out.writeInt(end);
+                for (var slot = 0; slot < end; slot++) {
+                    var row = readRow(slot);
+                    if (row == null) {
+                        // a create still in flight, the slot stays empty so ids keep their place
+                        out.writeLong(0);
+                        out.writeShort(0);
+                        continue;
+                    }
+                    var email = arena.read(row.emailRef());
+                    var hash = arena.read(row.hashRef());
+                    out.writeLong(row.version());
+                    out.writeShort(email.length);
+                    out.write(email);
+                    out.writeShort(hash.length);
+                    out.write(hash);
+                    written++;
+                }
+                // on disk before the rename, or a crash could leave the new name on unwritten data
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return written;
+        } finally {
+            snapshotting.unlock();
+        }
+    }
+
+    // reads the snapshot through a memory mapping, ids and versions are kept
+    public static InMemoryUserStore load(Path file) throws IOException {
+        var store = new InMemoryUserStore();
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot " + file + " is larger than a single mapping");
+            }
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != SNAPSHOT_MAGIC || buffer.getInt() != SNAPSHOT_FORMAT) {
+                throw new IOException(file + " is not a user store snapshot");
+            }
+            var end = buffer.getInt();
+            for (var slot = 0; slot < end; slot++) {
+                var version = buffer.getLong();
+                var email = new byte[Short.toUnsignedInt(buffer.getShort())];
+                if (email.length == 0) {
+                    continue;
+                }
+                buffer.get(email);
+                var hash = new byte[Short.toUnsignedInt(buffer.getShort())];
+                buffer.get(hash);
+                store.restore(slot, email, hash, version);
+            }
+            store.slots.set(end);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Snapshot " + file + " is truncated", e);
+        }
+        return store;
+    }
+
+    private boolean insert(String email, String passwordHash) {
+        var key = UserStore.normalizeEmail(email);
+        var hash = hashOf(key);
+        growIndexIfNeeded();
+        var stripe = stripeOf(hash);
+        stripe.lock();
+        try {
+            indexGrowth.readLock().lock();
+            try {
+                if (find(key, hash) != null) {
+                    return false;
+                }
+                // bytes first, a failed append must not leave a claimed slot behind
+                var emailRef = arena.append(bytesOf(email));
+                var hashRef = arena.append(bytesOf(passwordHash));
+                var slot = slots.getAndIncrement();
+                writeRow(slot, emailRef, hashRef, 0);
+                addToIndex(index, hash, slot);
+                indexed.incrementAndGet();
+                return true;
+            } finally {
+                indexGrowth.readLock().unlock();
+            }
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    private void restore(int slot, byte[] email, byte[] hash, long version) {
+        growIndexIfNeeded();
+        var key = UserStore.normalizeEmail(new String(email, StandardCharsets.UTF_8));
+        writeRow(slot, arena.append(email), arena.append(hash), version);
+        addToIndex(index, hashOf(key), slot);
+        indexed.incrementAndGet();
+    }
+
+    private Row find(String key, int hash) {
+        var table = index;
+        var mask = table.length() - 1;
+        for (var i = hash & mask; ; i = (i + 1) & mask) {
+            var cell = table.get(i);
+            if (cell == 0) {
+                return null;
+            }
+            if ((int) (cell >>> 32) == hash) {
+                var row = readRow((int) cell - 1);
+                if (row != null && UserStore.normalizeEmail(arena.readString(row.emailRef())).equals(key)) {
+                    return row;
+                }
+            }
+        }
+    }
+
+    private static void addToIndex(AtomicLongArray table, int hash, int slot) {
+        var mask = table.length() - 1;
+        var cell = ((long) hash << 32) | (slot + 1L);
+        for (var i = hash & mask; ; i = (i + 1) & mask) {
+            if (table.get(i) == 0 && table.compareAndSet(i, 0, cell)) {
+                return;
+            }
+        }
+    }
+
+    // kept at most half full so probes stay short and always reach an empty cell
+    private void growIndexIfNeeded() {
+        if ((indexed.get() + STRIPES) * 2L <= index.length()) {
+            return;
+        }
+        indexGrowth.writeLock().lock();
+        try {
+            var table = index;
+            if ((indexed.get() + STRIPES) * 2L <= table.length()) {
+                return;
+            }
+            var grown = new AtomicLongArray(table.length() * 2);
+            for (var i = 0; i < table.length(); i++) {
+                var cell = table.get(i);
+                if (cell != 0) {
+                    addToIndex(grown, (int) (cell >>> 32), (int) cell - 1);
+                }
+            }
+            index = grown;
+        } finally {
+            indexGrowth.writeLock().unlock();
+        }
+    }
+
+    private Row readRow(int slot) {
+        var page = pages.get(slot >>> PAGE_BITS);
+        if (page == null) {
+            return null;
+        }
+        var base = (slot & (PAGE_SIZE - 1)) * FIELDS;
+        while (true) {
+            var stamp = page.get(base + STAMP);
+            if (stamp == 0) {
+                // claimed by a create that has not finished writing
+                return null;
+            }
+            if ((stamp & 1) == 0) {
+                var row = new Row(slot, page.get(base + EMAIL), page.get(base + HASH), page.get(base + VERSION));
+                if (page.get(base + STAMP) == stamp) {
+                    return row;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    // callers hold the record's stripe, or own the store while loading it
+    private void writeRow(int slot, long emailRef, long hashRef, long version) {
+        var page = pageOf(slot);
+        var base = (slot & (PAGE_SIZE - 1)) * FIELDS;
+        var stamp = page.get(base + STAMP);
+        page.set(base + STAMP, stamp + 1);
+        page.set(base + EMAIL, emailRef);
+        page.set(base + HASH, hashRef);
+        page.set(base + VERSION, version);
+        page.set(base + STAMP, stamp + 2);
+    }
+
+    private AtomicLongArray pageOf(int slot) {
+        var number = slot >>> PAGE_BITS;
+        if (number >= MAX_PAGES) {
+            throw new IllegalStateException("The in-memory user store is full");
+        }
+        var page = pages.get(number);
+        if (page == null) {
+            pages.compareAndSet(number, null, new AtomicLongArray(PAGE_SIZE * FIELDS));
+            page = pages.get(number);
+        }
+        return page;
+    }
+
+    private UserEntity toEntity(Row row) {
+        return new UserEntity(row.slot() + 1, arena.readString(row.emailRef()), arena.readString(row.hashRef()));
+    }
+
+    private ReentrantLock stripeOf(int hash) {
+        return stripes[(hash >>> 16) & (STRIPES - 1)];
+    }
+
+    private static int hashOf(String key) {
+        var hash = key.hashCode() * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static byte[] bytesOf(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /*
+     * Append only off-heap bytes in 4 MiB direct chunks. A ref packs the chunk, the offset and the
+     * length; the bytes are written before the ref is published through a record, which is what makes
+     * them visible to readers.
+     */
+    private static final class ByteArena {
+        private static final int CHUNK_BITS = 22;
+        private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+        private static final int MAX_CHUNKS = 1 << 16;
+        private static final int MAX_LENGTH = 0xFFFF;
+
+        private final AtomicReferenceArray<ByteBuffer> chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+        private final ReentrantLock lock = new ReentrantLock();
+        private int chunk = -1;
+        private int position = CHUNK_SIZE;
+
+        long append(byte[] value) {
+            if (value.length > MAX_LENGTH) {
+                throw new IllegalArgumentException("Values in the user store are limited to " + MAX_LENGTH + " bytes");
+            }
+            lock.lock();
+            try {
+                if (position + value.length > CHUNK_SIZE) {
+                    if (chunk + 1 >= MAX_CHUNKS) {
+                        throw new IllegalStateException("The in-memory user store is full");
+                    }
+                    chunks.set(chunk + 1, ByteBuffer.allocateDirect(CHUNK_SIZE));
+                    chunk++;
+                    position = 0;
+                }
+                var offset = position;
+                chunks.get(chunk).put(offset, value);
+                position += value.length;
+                return ((long) chunk << 40) | ((long) offset << 16) | value.length;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        static int length(long ref) {
+            return (int) (ref & MAX_LENGTH);
+        }
+
+        byte[] read(long ref) {
+            var value = new byte[length(ref)];
+            chunks.get((int) (ref >>> 40)).get((int) ((ref >>> 16) & (CHUNK_SIZE - 1)), value);
+            return value;
+        }
+
+        String readString(long ref) {
+            return new String(read(ref), StandardCharsets.UTF_8);
+        }
+
+        long reservedBytes() {
+            lock.lock();
+            try {
+                return (chunk + 1L) * CHUNK_SIZE;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
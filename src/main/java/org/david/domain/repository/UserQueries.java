@@ -0,0 +1,92 @@
+package org.david.domain.repository;
+import module java.base;
+import org.jooq.SQLDialect;
+import org.jooq.conf.ParamType;
+import org.jooq.conf.Settings;
+import org.jooq.impl.DSL;
+
+import static org.david.domain.repository.UserRepository.*;
+import static org.jooq.impl.DSL.inline;
+import static org.jooq.impl.DSL.lower;
+import static org.jooq.impl.DSL.param;
+
+/*
+ * SQL of the single statement user queries, rendered by jOOQ once per dialect with ? placeholders and
+ * then executed as plain prepared statements. Sending the exact same string every time is what lets
+ * pgjdbc keep a server side prepared statement per connection instead of parsing and planning again.
+ * Selects list their columns so rows can be read by position.
+ */
+public final class UserQueries {
+    private static final Map<SQLDialect, UserQueries> BY_DIALECT = new ConcurrentHashMap<>();
+
+    public final String countUsers;
+    // email, password
+    public final String insertUser;
+    // new password, id, old password
+    public final String rehashPassword;
+    // password, email
+    public final String updatePasswordByEmail;
+    // password, email, bumps the version
+    public final String updatePasswordByEmailVersioned;
+    // password, email, expected version
+    public final String updatePasswordByEmailIfVersion;
+    // email
+    public final String selectVersionByEmail;
+    public final String selectUsers;
+    public final String selectUsersOrdered;
+    // after id, limit
+    public final String selectUsersPage;
+    // email
+    public final String selectUserByEmail;
+    public final String selectEmails;
+
+    public static UserQueries forDialect(SQLDialect dialect) {
+        return BY_DIALECT.computeIfAbsent(dialect, UserQueries::new);
+    }
+
+    private UserQueries(SQLDialect dialect) {
+        var dsl = DSL.using(dialect, new Settings().withParamType(ParamType.INDEXED));
+        // emails match case-insensitively through the unique lower(email) index, H2 has no expression
+        // indexes so the embedded schemas declare the column VARCHAR_IGNORECASE instead
+        var emailMatches = dialect.family() == SQLDialect.H2
+            ? EMAIL.eq(param("email", String.class))
+            : lower(EMAIL).eq(lower(param("email", String.class)));
+        countUsers = dsl.render(dsl.selectCount().from(USERS));
+        insertUser = dsl.render(dsl.insertInto(USERS)
+            .columns(EMAIL, PASSWORD)
+            .values(param("email", String.class), param("password", String.class)));
+        rehashPassword = dsl.render(dsl.update(USERS)
+            .set(PASSWORD, param("newPassword", String.class))
+            .where(ID.eq(param("id", Integer.class)))
+            .and(PASSWORD.eq(param("oldPassword", String.class))));
+        updatePasswordByEmail = dsl.render(dsl.update(USERS)
+            .set(PASSWORD, param("password", String.class))
+            .where(emailMatches)
+            .returningResult(ID, EMAIL, PASSWORD));
+        updatePasswordByEmailVersioned = dsl.render(dsl.update(USERS)
+            .set(PASSWORD, param("password", String.class))
+            .set(VERSION, VERSION.plus(inline(1L)))
+            .where(emailMatches)
+            .returningResult(ID, EMAIL, PASSWORD, VERSION));
+        updatePasswordByEmailIfVersion = dsl.render(dsl.update(USERS)
+            .set(PASSWORD, param("password", String.class))
+            .set(VERSION, VERSION.plus(inline(1L)))
+            .where(emailMatches)
+            .and(VERSION.eq(param("version", Long.class)))
+            .returningResult(ID, EMAIL, PASSWORD, VERSION));
+        selectVersionByEmail = dsl.render(dsl.select(VERSION)
+            .from(USERS)
+            .where(emailMatches));
+        selectUsers = dsl.render(dsl.select(ID, EMAIL, PASSWORD).from(USERS));
+        selectUsersOrdered = dsl.render(dsl.select(ID, EMAIL, PASSWORD).from(USERS).orderBy(ID));
+        selectUsersPage = dsl.render(dsl.select(ID, EMAIL, PASSWORD)
+            .from(USERS)
+            .where(ID.gt(param("afterId", Integer.class)))
+            .orderBy(ID)
+            .limit(param("limit", Integer.class)));
+        selectUserByEmail = dsl.render(dsl.select(ID, EMAIL, PASSWORD)
+            .from(USERS)
+            .where(emailMatches));
+        selectEmails = dsl.render(dsl.select(EMAIL).from(USERS));
+    }
+}
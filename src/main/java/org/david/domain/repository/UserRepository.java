@@ -1,78 +1,561 @@
 package org.david.domain.repository;
 import module java.base;
 import org.david.boundaries.adapters.DB;
+import org.david.boundaries.adapters.ReplicaRouter;
 import org.david.boundaries.adapters.UserEntity;
 import org.david.domain.models.UserModels.*;
+import org.david.miscellaneous.cache.SegmentedLruCache;
 import org.david.miscellaneous.custom_exceptions.CustomExceptions;
+import org.david.miscellaneous.custom_exceptions.HttpCustomException;
+import org.david.miscellaneous.filters.BloomFilter;
+import org.david.miscellaneous.metrics.LatencyHistogram;
+import org.david.miscellaneous.metrics.MetricsRegistry;
 import org.jetbrains.annotations.NotNull;
+import org.jooq.DSLContext;
 import org.jooq.Field;
+import org.jooq.SQLDialect;
 import org.jooq.Table;
+import org.jooq.exception.DataAccessException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 
 
 import static org.jooq.impl.DSL.field;
 import static org.jooq.impl.DSL.table;
+import static org.jooq.impl.DSL.unquotedName;
 
-public class UserRepository {
+public class UserRepository implements UserStore {
+    private static final Logger log = LoggerFactory.getLogger(UserRepository.class);
 
     public static final Table<?> USERS = table("users");
     public static final Field<Integer> ID = field("id", Integer.class);
     public static final Field<String> EMAIL = field("email", String.class);
     public static final Field<String> PASSWORD = field("password", String.class);
+    public static final Field<Long> VERSION = field("version", Long.class);
+    public static final int STREAM_FETCH_SIZE = 500;
+    public static final int INSERT_CHUNK_SIZE = 500;
+    private static final int CACHE_MAXIMUM_SIZE = 10_000;
+    private static final double EMAIL_FILTER_FALSE_POSITIVE_RATE = 0.01;
+    private static final long EMAIL_FILTER_MINIMUM_CAPACITY = 10_000;
+    private static final LatencyHistogram COUNT_USERS_QUERY = DB.queryTimer("count_users");
+    private static final LatencyHistogram CREATE_USER_QUERY = DB.queryTimer("create_user");
+    private static final LatencyHistogram CREATE_USERS_QUERY = DB.queryTimer("create_users");
+    private static final LatencyHistogram UPDATE_USER_QUERY = DB.queryTimer("update_user");
+    private static final LatencyHistogram USER_VERSION_QUERY = DB.queryTimer("user_version");
+    private static final LatencyHistogram REHASH_PASSWORD_QUERY = DB.queryTimer("rehash_password");
+    private static final LatencyHistogram GET_USERS_QUERY = DB.queryTimer("get_users");
+    private static final LatencyHistogram GET_USERS_PAGE_QUERY = DB.queryTimer("get_users_page");
+    private static final LatencyHistogram STREAM_USERS_QUERY = DB.queryTimer("stream_users");
+    private static final LatencyHistogram GET_SINGLE_USER_QUERY = DB.queryTimer("get_single_user");
+    private static final LatencyHistogram STREAM_EMAILS_QUERY = DB.queryTimer("stream_emails");
+    private static final LatencyHistogram INDEX_CHECK_QUERY = DB.queryTimer("index_check");
     private final DB db;
+    private final UserQueries queries;
+    private volatile SegmentedLruCache<String, UserEntity> userCache;
+    private final AtomicLong writeEpoch = new AtomicLong();
+    // unlike writeEpoch, which invalidates cached hashes, rehashes don't move it
+    private final AtomicLong dataVersion = new AtomicLong();
+    private volatile BloomFilter emailFilter;
+    private volatile BloomFilter rebuildingEmailFilter;
+    private final LongAdder filteredLookups = new LongAdder();
+    private final LongAdder filterFalsePositives = new LongAdder();
+    private volatile GroupCommitWriter groupCommitWriter;
+    private volatile boolean versioned;
+    private volatile ReplicaRouter reads;
+
+    public record EmailFilterStats(boolean ready, long emails, long memoryBytes, double expectedFalsePositiveRate,
+                                   long filteredLookups, long falsePositives, double observedFalsePositiveRate) {
+    }
 
     public UserRepository(DB db){
+        this(db, null);
+    }
+
+    // a null cache reads every user from the database
+    public UserRepository(DB db, SegmentedLruCache<String, UserEntity> userCache){
         this.db = db;
+        this.queries = UserQueries.forDialect(db.dialect());
+        this.userCache = userCache;
+        this.reads = new ReplicaRouter(db, List.of(), ReplicaRouter.Selection.ROUND_ROBIN, Duration.ZERO, System::nanoTime);
+        registerMetrics();
+    }
+
+    private void registerMetrics(){
+        var registry = MetricsRegistry.instance;
+        registry.counter("users_cache_hits_total", "User cache hits", "", () -> cacheStats().hits());
+        registry.counter("users_cache_misses_total", "User cache misses", "", () -> cacheStats().misses());
+        registry.counter("users_cache_evictions_total", "User cache evictions", "", () -> cacheStats().evictions());
+        registry.gauge("users_cache_size", "Entries in the user cache", "", () -> cacheStats().size());
+        registry.gauge("users_email_filter_bytes", "Memory used by the email filter", "", () -> emailFilterStats().memoryBytes());
+        registry.counter("users_email_filter_rejections_total", "Logins answered by the email filter", "", filteredLookups::sum);
+        registry.gauge("users_email_filter_false_positive_ratio", "Observed email filter false positive rate", "",
+            () -> emailFilterStats().observedFalsePositiveRate());
+    }
+
+    /*
+     * Cached users carry the password hash logins verify against, and only the instance that made a
+     * write drops its entry. That is only correct for a single instance: behind several, a password
+     * changed elsewhere keeps logging in with the old one for up to the ttl, so keep it to seconds.
+     */
+    public void enableUserCache(Duration ttl){
+        userCache = new SegmentedLruCache<>(CACHE_MAXIMUM_SIZE, ttl);
+    }
+
+    public void enableGroupCommit(int maxBatchSize, Duration maxDelay){
+        groupCommitWriter = new GroupCommitWriter(maxBatchSize, maxDelay, this::createUsers);
+    }
+
+    /*
+     * Lists and logins read from the replicas from then on, the bloom filter rebuild and everything
+     * on the write path stay on the primary.
+     */
+    public void enableReadReplicas(List<DB> replicas, ReplicaRouter.Selection selection, Duration stickyWindow){
+        reads = new ReplicaRouter(db, replicas, selection, stickyWindow);
     }
 
+    // needs a users.version bigint column, every update bumps it
+    public void enableVersioning(){
+        versioned = true;
+    }
+
+    @Override
+    public long dataVersion(){
+        return dataVersion.get();
+    }
+
+    @Override
+    public boolean versioningEnabled(){
+        return versioned;
+    }
+
+    public Optional<GroupCommitWriter.Stats> groupCommitStats(){
+        var writer = groupCommitWriter;
+        return writer == null ? Optional.empty() : Optional.of(writer.stats());
+    }
+
+    public SegmentedLruCache.Stats cacheStats(){
+        var cache = userCache;
+        return cache == null ? new SegmentedLruCache.Stats(0, 0, 0, 0) : cache.stats();
+    }
 
+    public EmailFilterStats emailFilterStats(){
+        var filter = emailFilter;
+        var filtered = filteredLookups.sum();
+        var falsePositives = filterFalsePositives.sum();
+        var checkedAbsent = filtered + falsePositives;
+        return new EmailFilterStats(
+            filter != null,
+            filter == null ? 0 : filter.insertions(),
+            filter == null ? 0 : filter.memoryFootprintBytes(),
+            filter == null ? 0 : filter.expectedFalsePositiveRate(),
+            filtered,
+            falsePositives,
+            checkedAbsent == 0 ? 0 : (double) falsePositives / checkedAbsent);
+    }
+
+    /*
+     * Asks the planner how the login and update statements would run with sequential scans priced out,
+     * a plan that still scans the table means no index fits them. Returns one warning per such query.
+     */
+    public List<String> checkIndexUsage(){
+        if(db.dialect().family() != SQLDialect.POSTGRES){
+            return List.of();
+        }
+        try {
+            return db.executeJdbc(INDEX_CHECK_QUERY, connection -> {
+                var autoCommit = connection.getAutoCommit();
+                connection.setAutoCommit(false);
+                try {
+                    try(var statement = connection.createStatement()){
+                        statement.execute("set local enable_seqscan = off");
+                    }
+                    var warnings = new ArrayList<String>();
+                    checkPlan(connection, "login", queries.selectUserByEmail, "index-check@example.com")
+                        .ifPresent(warnings::add);
+                    checkPlan(connection, "update", queries.updatePasswordByEmail, "index-check", "index-check@example.com")
+                        .ifPresent(warnings::add);
+                    return warnings;
+                } finally {
+                    // EXPLAIN without ANALYZE runs nothing, the rollback only drops the setting
+                    connection.rollback();
+                    connection.setAutoCommit(autoCommit);
+                }
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException(e.getMessage());
+        }
+    }
+
+    private static Optional<String> checkPlan(Connection connection, String name, String sql, String... parameters) throws SQLException {
+        var plan = new StringBuilder();
+        try(var statement = connection.prepareStatement("explain " + sql)){
+            for (var i = 0; i < parameters.length; i++) {
+                statement.setString(i + 1, parameters[i]);
+            }
+            try(var rows = statement.executeQuery()){
+                while(rows.next()){
+                    plan.append(rows.getString(1)).append('\n');
+                }
+            }
+        }
+        if(plan.indexOf("Seq Scan") >= 0){
+            return Optional.of("The " + name + " query scans the whole users table, is the lower(email) index missing?\n" + plan);
+        }
+        log.debug("{} query plan:\n{}", name, plan);
+        return Optional.empty();
+    }
+
+    /*
+     * Once a filter is built, logins trust its "absent" answer. It only learns of the emails this
+     * instance writes, so it is correct only when this instance is the single writer: users created by
+     * another instance or straight in the database are refused until the next rebuild.
+     */
+    public void rebuildEmailFilter(){
+        try {
+            var registered = db.executeJdbc(COUNT_USERS_QUERY, connection -> {
+                try(var statement = connection.prepareStatement(queries.countUsers);
+                    var rows = statement.executeQuery()){
+                    rows.next();
+                    return rows.getInt(1);
+                }
+            });
+            var filter = new BloomFilter(
+                Math.max(EMAIL_FILTER_MINIMUM_CAPACITY, registered * 2L),
+                EMAIL_FILTER_FALSE_POSITIVE_RATE);
+            // emails created while we stream land in both the live and the new filter
+            rebuildingEmailFilter = filter;
+            streamEmails(email -> filter.put(UserStore.normalizeEmail(email)));
+            emailFilter = filter;
+            log.info("Email filter rebuilt with {} emails using {} KiB, expected false positive rate {}",
+                filter.insertions(), filter.memoryFootprintBytes() / 1024, filter.expectedFalsePositiveRate());
+        } catch (Exception e) {
+            log.error("Could not rebuild the email filter, keeping the previous one", e);
+        } finally {
+            rebuildingEmailFilter = null;
+        }
+    }
+
+
+    @Override
     public int createUser(User newUser) {
+        var writer = groupCommitWriter;
+        if(writer != null){
+            return createUserGrouped(writer, newUser);
+        }
         int res;
+        // registered before the insert so a login right after the commit is never filtered out
+        rememberEmail(UserStore.normalizeEmail(newUser.email()));
         try {
-            res = db.execute(dslContext -> dslContext
-                .insertInto(USERS)
-                .columns(EMAIL, PASSWORD)
-                .values(newUser.email(), newUser.password())
-                .execute());
+            res = db.executeJdbc(CREATE_USER_QUERY, connection -> {
+                try(var statement = connection.prepareStatement(queries.insertUser)){
+                    statement.setString(1, newUser.email());
+                    statement.setString(2, newUser.password());
+                    return statement.executeUpdate();
+                }
+            });
+            onUserWritten(newUser.email());
+            if(res == 1){
+                dataVersion.incrementAndGet();
+            }
             return res;
         } catch (SQLException e) {
+            // the unique lower(email) index turned it away, the same outcome as a conflict in a group commit
+            if(DB.isUniqueViolation(e)){
+                return 0;
+            }
             throw new CustomExceptions.FailedToCreateUserException(e.getMessage());
         }
     }
 
+    private static int createUserGrouped(GroupCommitWriter writer, User newUser){
+        try {
+            return writer.submit(newUser).join() == InsertOutcome.CREATED ? 1 : 0;
+        } catch (CompletionException e) {
+            if(e.getCause() instanceof HttpCustomException httpException){
+                throw httpException;
+            }
+            throw new CustomExceptions.FailedToCreateUserException(e.getCause().getMessage());
+        }
+    }
+
     @NotNull
-    public  Optional<UserEntity> updateUser(UserEntity user){
+    @Override
+    public List<InsertOutcome> createUsers(List<User> newUsers) {
+        newUsers.forEach(user -> rememberEmail(UserStore.normalizeEmail(user.email())));
+        var outcomes = new ArrayList<InsertOutcome>(newUsers.size());
         try {
-            var res = db.execute(dslContext -> dslContext
-                .update(USERS)
-                .set(PASSWORD, user.password)
-                .set(EMAIL, user.email)
-                .where(ID.eq(user.id))
-                .execute());
-            return res == 1 ? Optional.of(user) : Optional.empty();
+            db.execute(CREATE_USERS_QUERY, dslContext -> {
+                for (var from = 0; from < newUsers.size(); from += INSERT_CHUNK_SIZE) {
+                    var chunk = newUsers.subList(from, Math.min(from + INSERT_CHUNK_SIZE, newUsers.size()));
+                    try {
+                        var inserted = insertChunk(dslContext, chunk);
+                        // removing the match keeps a repeated email in the same chunk from also counting as created
+                        chunk.forEach(user -> outcomes.add(
+                            inserted.remove(user.email()) ? InsertOutcome.CREATED : InsertOutcome.CONFLICT));
+                    } catch (DataAccessException e) {
+                        log.warn("Bulk insert chunk of {} users failed", chunk.size(), e);
+                        chunk.forEach(_ -> outcomes.add(InsertOutcome.FAILED));
+                    }
+                }
+                return outcomes.size();
+            });
+        } catch (SQLException e) {
+            throw new CustomExceptions.FailedToCreateUserException(e.getMessage());
+        }
+        for (var i = 0; i < newUsers.size(); i++) {
+            if (outcomes.get(i) == InsertOutcome.CREATED) {
+                onUserWritten(newUsers.get(i).email());
+            }
+        }
+        if(outcomes.contains(InsertOutcome.CREATED)){
+            dataVersion.incrementAndGet();
+        }
+        return outcomes;
+    }
+
+    /*
+     * Sets the password of the user with this email in one statement, the row comes back from RETURNING.
+     * With versioning enabled and an expected version given, the update only applies to that version, a
+     * miss is told apart from a stale version by a second look that only runs on failure.
+     */
+    @NotNull
+    @Override
+    public UpdateResult updatePassword(String email, String passwordHash, Long expectedVersion){
+        if(expectedVersion != null && !versioned){
+            throw new IllegalStateException("Conditional updates need versioning enabled");
+        }
+        var versionedUpdate = versioned;
+        var sql = !versionedUpdate ? queries.updatePasswordByEmail
+            : expectedVersion == null ? queries.updatePasswordByEmailVersioned
+            : queries.updatePasswordByEmailIfVersion;
+        try {
+            var updated = db.executeJdbc(UPDATE_USER_QUERY, connection -> {
+                try(var statement = connection.prepareStatement(sql)){
+                    statement.setString(1, passwordHash);
+                    statement.setString(2, email);
+                    if(expectedVersion != null){
+                        statement.setLong(3, expectedVersion);
+                    }
+                    try(var rows = statement.executeQuery()){
+                        if(!rows.next()){
+                            return null;
+                        }
+                        return new UpdateResult(UpdateOutcome.UPDATED, readUser(rows), versionedUpdate ? rows.getLong(4) : null);
+                    }
+                }
+            });
+            if(updated != null){
+                onUserWritten(email);
+                dataVersion.incrementAndGet();
+                return updated;
+            }
+            if(expectedVersion == null){
+                return new UpdateResult(UpdateOutcome.NOT_FOUND, null, null);
+            }
+            var current = db.executeJdbc(USER_VERSION_QUERY, connection -> {
+                try(var statement = connection.prepareStatement(queries.selectVersionByEmail)){
+                    statement.setString(1, email);
+                    try(var rows = statement.executeQuery()){
+                        return rows.next() ? rows.getLong(1) : null;
+                    }
+                }
+            });
+            return current == null
+                ? new UpdateResult(UpdateOutcome.NOT_FOUND, null, null)
+                : new UpdateResult(UpdateOutcome.VERSION_CONFLICT, null, current);
+        }catch (SQLException e){
+            throw new RuntimeException(e.getMessage());
+        }
+    }
+    @Override
+    public boolean rehashPassword(UserEntity user, String newPasswordHash){
+        try {
+            // only replaces the hash we verified against, a password change in between wins
+            var res = db.executeJdbc(REHASH_PASSWORD_QUERY, connection -> {
+                try(var statement = connection.prepareStatement(queries.rehashPassword)){
+                    statement.setString(1, newPasswordHash);
+                    statement.setInt(2, user.id);
+                    statement.setString(3, user.password);
+                    return statement.executeUpdate();
+                }
+            });
+            if(res == 1){
+                onUserWritten(user.email);
+            }
+            return res == 1;
         }catch (SQLException e){
             throw new RuntimeException(e.getMessage());
         }
     }
+
     @NotNull
+    @Override
     public  List<UserEntity> getUsers(){
        try{
-           return db.execute(dslContext -> dslContext
-               .selectFrom(USERS)
-               .fetchInto(UserEntity.class));
+           return reads.forRead().executeJdbc(GET_USERS_QUERY, connection -> {
+               try(var statement = connection.prepareStatement(queries.selectUsers);
+                   var rows = statement.executeQuery()){
+                   var users = new ArrayList<UserEntity>();
+                   while(rows.next()){
+                       users.add(readUser(rows));
+                   }
+                   return users;
+               }
+           });
        }catch (SQLException e){
            throw new RuntimeException(e.getMessage());
        }
     }
+    @NotNull
+    @Override
+    public  List<UserEntity> getUsersPage(int afterId, int limit){
+        try{
+            return reads.forRead().executeJdbc(GET_USERS_PAGE_QUERY, connection -> {
+                try(var statement = connection.prepareStatement(queries.selectUsersPage)){
+                    statement.setInt(1, afterId);
+                    statement.setInt(2, limit);
+                    try(var rows = statement.executeQuery()){
+                        var users = new ArrayList<UserEntity>(limit);
+                        while(rows.next()){
+                            users.add(readUser(rows));
+                        }
+                        return users;
+                    }
+                }
+            });
+        }catch (SQLException e){
+            throw new RuntimeException(e.getMessage());
+        }
+    }
+
+    @Override
+    public long streamUsers(Consumer<UserEntity> consumer){
+        try{
+            return reads.forRead().executeJdbc(STREAM_USERS_QUERY, connection ->
+                streamRows(connection, queries.selectUsersOrdered, rows -> consumer.accept(readUser(rows))));
+        }catch (SQLException e){
+            throw new RuntimeException(e.getMessage());
+        }
+    }
+    @Override
     public  Optional<UserEntity> getSingleUser(String email){
+       var key = UserStore.normalizeEmail(email);
+       var filter = emailFilter;
+       if(filter != null && !filter.mightContain(key)){
+           filteredLookups.increment();
+           return Optional.empty();
+       }
+       var cache = userCache;
+       var cached = cache == null ? null : cache.get(key);
+       if(cached != null){
+           return Optional.of(copyOf(cached));
+       }
+       var epoch = writeEpoch.get();
        try {
-           return db.execute(dslContext ->
-               dslContext.selectFrom(USERS)
-                   .where(EMAIL.eq(email))
-                   .fetchOptionalInto(UserEntity.class));
+           var user = reads.forRead(key).executeJdbc(GET_SINGLE_USER_QUERY, connection -> {
+               try(var statement = connection.prepareStatement(queries.selectUserByEmail)){
+                   statement.setString(1, email);
+                   try(var rows = statement.executeQuery()){
+                       return rows.next() ? Optional.of(readUser(rows)) : Optional.<UserEntity>empty();
+                   }
+               }
+           });
+           // a write that raced with this read would otherwise leave a stale entry behind
+           if(cache != null && user.isPresent() && writeEpoch.get() == epoch){
+               cache.put(key, copyOf(user.get()));
+           }
+           if(user.isEmpty() && filter != null){
+               filterFalsePositives.increment();
+           }
+           return user;
        }catch (SQLException e){
            throw new RuntimeException(e.getMessage());
        }
     }
+
+    private static Set<String> insertChunk(DSLContext dslContext, List<User> chunk){
+        var insert = dslContext.insertInto(USERS, EMAIL, PASSWORD);
+        for (var user : chunk) {
+            insert = insert.values(user.email(), user.password());
+        }
+        // conflicting rows are skipped instead of failing the whole statement. Postgres matches them on
+        // the lower(email) index, on H2 jOOQ emulates the clause with a merge that needs the column named
+        var skipConflicts = dslContext.dialect().family() == SQLDialect.H2
+            ? insert.onConflict(field(unquotedName("users", "email"), String.class)).doNothing()
+            : insert.onConflictDoNothing();
+        return new HashSet<>(skipConflicts
+            .returningResult(EMAIL)
+            .fetch(EMAIL));
+    }
+
+    private void streamEmails(Consumer<String> consumer) throws SQLException {
+        db.executeJdbc(STREAM_EMAILS_QUERY, connection ->
+            streamRows(connection, queries.selectEmails, rows -> consumer.accept(rows.getString(1))));
+    }
+
+    @FunctionalInterface
+    private interface RowReader {
+        void read(ResultSet rows) throws SQLException;
+    }
+
+    private static long streamRows(Connection connection, String sql, RowReader reader) throws SQLException {
+        // postgres only honours the fetch size (server side cursor) when autocommit is off
+        var autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try(var statement = connection.prepareStatement(sql)){
+            statement.setFetchSize(STREAM_FETCH_SIZE);
+            try(var rows = statement.executeQuery()){
+                var count = 0L;
+                for(; rows.next(); count++){
+                    reader.read(rows);
+                }
+                connection.commit();
+                return count;
+            }
+        }catch (SQLException | RuntimeException e){
+            connection.rollback();
+            throw e;
+        }finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static UserEntity readUser(ResultSet rows) throws SQLException {
+        return new UserEntity(rows.getInt(1), rows.getString(2), rows.getString(3));
+    }
+
+    private void onUserWritten(String email){
+        var key = UserStore.normalizeEmail(email);
+        reads.wrote(key);
+        writeEpoch.incrementAndGet();
+        var cache = userCache;
+        if(cache != null){
+            cache.invalidate(key);
+        }
+        rememberEmail(key);
+    }
+
+    /*
+     * The rebuild publishes its filter and then clears the rebuilding one, so the rebuilding filter is
+     * read first: reading the live one first could see the old filter and then no rebuilding one, and
+     * the key would miss the filter that replaced them.
+     */
+    private void rememberEmail(String key){
+        var rebuilding = rebuildingEmailFilter;
+        var filter = emailFilter;
+        if(rebuilding != null){
+            rebuilding.put(key);
+        }
+        if(filter != null && filter != rebuilding){
+            filter.put(key);
+        }
+    }
+
+    private static UserEntity copyOf(UserEntity user){
+        return new UserEntity(user.id, user.email, user.password);
+    }
 }
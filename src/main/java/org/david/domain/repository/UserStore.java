@@ -0,0 +1,48 @@
+package org.david.domain.repository;
+import module java.base;
+import org.david.boundaries.adapters.UserEntity;
+import org.david.domain.models.UserModels.*;
+
+/*
+ * What the handlers need from user storage. UserRepository keeps users in Postgres, InMemoryUserStore
+ * keeps them in process for edge deployments and database free load tests. Emails are matched
+ * case-insensitively by both.
+ */
+public interface UserStore {
+
+    // version is null unless the store keeps versions
+    record UpdateResult(UpdateOutcome outcome, UserEntity user, Long version) {
+    }
+
+    static String normalizeEmail(String email){
+        return email.strip().toLowerCase(Locale.ROOT);
+    }
+
+    // 1 when the user was created, 0 when the email is taken
+    int createUser(User newUser);
+
+    // one outcome per user, in order
+    List<InsertOutcome> createUsers(List<User> newUsers);
+
+    // expectedVersion null updates whatever version is stored
+    UpdateResult updatePassword(String email, String passwordHash, Long expectedVersion);
+
+    boolean versioningEnabled();
+
+    /*
+     * Moves forward after every create or update a client makes, once the write is visible. Rehashes
+     * change nothing a client can see and leave it alone. It only counts the writes of this process.
+     */
+    long dataVersion();
+
+    // only replaces the hash the caller verified against
+    boolean rehashPassword(UserEntity user, String newPasswordHash);
+
+    List<UserEntity> getUsers();
+
+    List<UserEntity> getUsersPage(int afterId, int limit);
+
+    long streamUsers(Consumer<UserEntity> consumer);
+
+    Optional<UserEntity> getSingleUser(String email);
+}
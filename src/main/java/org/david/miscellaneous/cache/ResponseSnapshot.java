@@ -0,0 +1,115 @@
+package org.david.miscellaneous.cache;
+import module java.base;
+
+/*
+ * A response body rendered once per version of the data behind it, with its gzip encoding and an
+ * ETag computed up front, so repeated polls cost a version check. The version is read before the
+ * body is rendered: a write racing the render leaves the snapshot tagged with the older version and
+ * the next request renders again. maxAge bounds how long a snapshot is served when the version can't
+ * see every write, e.g. writes made by another instance.
+ */
+public class ResponseSnapshot {
+    private static final HexFormat HEX = HexFormat.of();
+
+    /*
+     * The ETag is weak and derived from the content: it holds across both encodings, and a render that
+     * produces the same bytes keeps the ETag clients already have.
+     */
+    public record Rendered(long version, long renderedAt, String etag, byte[] identity, byte[] gzip) {
+    }
+
+    private final LongSupplier version;
+    private final Supplier<byte[]> render;
+    private final long maxAgeNanos;
+    private final LongSupplier nanoClock;
+    private final ReentrantLock rendering = new ReentrantLock();
+    private final LongAdder renders = new LongAdder();
+    private volatile Rendered current;
+
+    public ResponseSnapshot(LongSupplier version, Duration maxAge, Supplier<byte[]> render) {
+        this(version, maxAge, render, System::nanoTime);
+    }
+
+    public ResponseSnapshot(LongSupplier version, Duration maxAge, Supplier<byte[]> render, LongSupplier nanoClock) {
+        this.version = version;
+        this.render = render;
+        this.maxAgeNanos = maxAge.toNanos();
+        this.nanoClock = nanoClock;
+    }
+
+    public Rendered get() {
+        var wanted = version.getAsLong();
+        var snapshot = current;
+        if (isFresh(snapshot, wanted)) {
+            return snapshot;
+        }
+        // one render at a time, the requests queued behind it take its result
+        rendering.lock();
+        try {
+            snapshot = current;
+            if (isFresh(snapshot, wanted)) {
+                return snapshot;
+            }
+            var identity = render.get();
+            snapshot = new Rendered(wanted, nanoClock.getAsLong(), etagOf(identity), identity, gzip(identity));
+            renders.increment();
+            current = snapshot;
+            return snapshot;
+        } finally {
+            rendering.unlock();
+        }
+    }
+
+    public long renders() {
+        return renders.sum();
+    }
+
+    // If-None-Match is a list of ETags or *, compared weakly
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || ifNoneMatch.isBlank()) {
+            return false;
+        }
+        var opaque = opaqueTag(etag);
+        for (var candidate : ifNoneMatch.split(",")) {
+            var tag = candidate.strip();
+            if (tag.equals("*") || opaqueTag(tag).equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isFresh(Rendered snapshot, long wanted) {
+        return snapshot != null
+            && snapshot.version() >= wanted
+            && nanoClock.getAsLong() - snapshot.renderedAt() < maxAgeNanos;
+    }
+
+    private static String opaqueTag(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    private static String etagOf(byte[] body) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256").digest(body);
+            return "W/\"" + HEX.formatHex(digest, 0, 16) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // compressed once per version, so it is worth the slowest level
+    private static byte[] gzip(byte[] body) {
+        var out = new ByteArrayOutputStream(Math.max(64, body.length / 4));
+        try (var gzip = new GZIPOutputStream(out) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            gzip.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+}
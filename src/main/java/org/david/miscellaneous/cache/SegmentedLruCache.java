@@ -0,0 +1,193 @@
+package org.david.miscellaneous.cache;
+import module java.base;
+
+/*
+ * Bounded, TTL based segmented LRU. New keys land in the probation segment and are only promoted
+ * to the protected segment on a second hit, so one-off lookups can't push out the hot entries.
+ * Keys are spread across independently locked shards to keep contention low.
+ */
+public class SegmentedLruCache<K, V> {
+
+    private static final int MAX_SHARDS = 16;
+    private static final double PROTECTED_RATIO = 0.8;
+
+    private final Shard<K, V>[] shards;
+    private final long ttlNanos;
+    private final LongSupplier nanoClock;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public record Stats(long hits, long misses, long evictions, int size) {
+    }
+
+    private record Entry<V>(V value, long expiresAt) {
+    }
+
+    public SegmentedLruCache(int maximumSize, Duration ttl) {
+        this(maximumSize, ttl, System::nanoTime);
+    }
+
+    @SuppressWarnings("unchecked")
+    public SegmentedLruCache(int maximumSize, Duration ttl, LongSupplier nanoClock) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be positive");
+        }
+        var shardCount = Math.min(MAX_SHARDS, Integer.highestOneBit(Math.max(1, maximumSize / 64)));
+        var shardCapacity = Math.max(1, maximumSize / shardCount);
+        this.shards = new Shard[shardCount];
+        for (var i = 0; i < shardCount; i++) {
+            shards[i] = new Shard<>(shardCapacity, evictions);
+        }
+        this.ttlNanos = ttl.toNanos();
+        this.nanoClock = nanoClock;
+    }
+
+    public V get(K key) {
+        var value = shardFor(key).get(key, nanoClock.getAsLong());
+        if (value == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return value;
+    }
+
+    public void put(K key, V value) {
+        shardFor(key).put(key, new Entry<>(value, nanoClock.getAsLong() + ttlNanos));
+    }
+
+    public void invalidate(K key) {
+        shardFor(key).remove(key);
+    }
+
+    public void invalidateIf(Predicate<V> predicate) {
+        for (var shard : shards) {
+            shard.removeIf(predicate);
+        }
+    }
+
+    public void invalidateAll() {
+        for (var shard : shards) {
+            shard.clear();
+        }
+    }
+
+    public Stats stats() {
+        var size = 0;
+        for (var shard : shards) {
+            size += shard.size();
+        }
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), size);
+    }
+
+    private Shard<K, V> shardFor(K key) {
+        var hash = key.hashCode();
+        return shards[(hash ^ (hash >>> 16)) & (shards.length - 1)];
+    }
+
+    private static class Shard<K, V> {
+        private final int protectedCapacity;
+        private final int probationCapacity;
+        private final LinkedHashMap<K, Entry<V>> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<K, Entry<V>> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LongAdder evictions;
+
+        Shard(int capacity, LongAdder evictions) {
+            this.evictions = evictions;
+            this.protectedCapacity = Math.max(1, (int) (capacity * PROTECTED_RATIO));
+            this.probationCapacity = Math.max(1, capacity - protectedCapacity);
+        }
+
+        V get(K key, long now) {
+            lock.lock();
+            try {
+                var entry = protectedSegment.get(key);
+                if (entry != null) {
+                    if (entry.expiresAt() - now <= 0) {
+                        protectedSegment.remove(key);
+                        return null;
+                    }
+                    return entry.value();
+                }
+                entry = probation.remove(key);
+                if (entry == null || entry.expiresAt() - now <= 0) {
+                    return null;
+                }
+                protectedSegment.put(key, entry);
+                if (protectedSegment.size() > protectedCapacity) {
+                    var eldest = protectedSegment.entrySet().iterator().next();
+                    protectedSegment.remove(eldest.getKey());
+                    probation.put(eldest.getKey(), eldest.getValue());
+                }
+                trimProbation();
+                return entry.value();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void put(K key, Entry<V> entry) {
+            lock.lock();
+            try {
+                if (protectedSegment.containsKey(key)) {
+                    protectedSegment.put(key, entry);
+                    return;
+                }
+                probation.put(key, entry);
+                trimProbation();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void remove(K key) {
+            lock.lock();
+            try {
+                protectedSegment.remove(key);
+                probation.remove(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void removeIf(Predicate<V> predicate) {
+            lock.lock();
+            try {
+                protectedSegment.values().removeIf(entry -> predicate.test(entry.value()));
+                probation.values().removeIf(entry -> predicate.test(entry.value()));
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void clear() {
+            lock.lock();
+            try {
+                protectedSegment.clear();
+                probation.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return protectedSegment.size() + probation.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void trimProbation() {
+            var iterator = probation.entrySet().iterator();
+            while (probation.size() > probationCapacity && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+                evictions.increment();
+            }
+        }
+    }
+}
@@ -1,53 +1,87 @@
 package org.david.miscellaneous.criptography;
 import module java.base;
-import com.google.crypto.tink.subtle.Hkdf;
-import java.nio.charset.StandardCharsets;
-import java.security.GeneralSecurityException;
+import org.david.miscellaneous.metrics.LatencyHistogram;
+import org.david.miscellaneous.metrics.MetricsRegistry;
 
 
+/*
+ * Stored format: $<algorithm>$i=<cost>$<salt>$<hash>, salt and hash in base64. Hashes written before
+ * the format existed look like <hash>::<salt> and are read as the legacy HKDF profile.
+ */
 public class CryptManager {
 
     private static final SecureRandom SECURE_RANDOM = new SecureRandom();
     private static final int SALT_LENGTH = 32;
-    private static final int DERIVED_KEY_LENGTH = 64;
     private static final String HASH_SALT_SEPARATOR = "::";
+    private static final String FIELD_SEPARATOR = "$";
+    private static final String COST_PREFIX = "i=";
+    private static final LatencyHistogram HASH_LATENCY = MetricsRegistry.instance.histogram(
+        "crypt_operation_seconds", "Password key derivation time", "operation=\"hash\"");
+    private static final LatencyHistogram VERIFY_LATENCY = MetricsRegistry.instance.histogram(
+        "crypt_operation_seconds", "Password key derivation time", "operation=\"verify\"");
+    /*
+     * New hashes use the same derivation as before the format existed, so an unconfigured deployment keeps
+     * its cost per login. A slow profile is chosen per machine: run the calibrator and set
+     * PASSWORD_HASH_PROFILE, existing users are then rehashed as they log in.
+     */
+    private static volatile HashProfile defaultProfile = HashProfile.LEGACY_HKDF;
+
+    private record StoredHash(HashProfile profile, byte[] salt, byte[] hash) {
+    }
+
+    public static void configure(HashProfile profile) {
+        defaultProfile = profile;
+    }
+
+    public static HashProfile defaultProfile() {
+        return defaultProfile;
+    }
 
     public static String hashPassword(String password) {
+        return hashPassword(password, defaultProfile);
+    }
+
+    public static String hashPassword(String password, HashProfile profile) {
+        var start = System.nanoTime();
         var salt = generateSalt();
-        var saltString = Base64.getEncoder().encodeToString(salt);
-        try {
-            var hashedPassword =  Hkdf.computeHkdf(
-                "HmacSha256",
-                password.getBytes(StandardCharsets.UTF_8),
-                salt,
-                new byte[0],
-                DERIVED_KEY_LENGTH
-            );
-            var passwordString = Base64.getEncoder().encodeToString(hashedPassword);
-            return passwordString + HASH_SALT_SEPARATOR + saltString;
-        } catch (GeneralSecurityException e) {
-            throw new RuntimeException(e);
-        }
+        var strategy = profile.strategy();
+        var hashedPassword = strategy.derive(password, salt, profile.cost(), strategy.keyLength());
+        var encoder = Base64.getEncoder();
+        HASH_LATENCY.recordSince(start);
+        return FIELD_SEPARATOR + strategy.id()
+            + FIELD_SEPARATOR + COST_PREFIX + profile.cost()
+            + FIELD_SEPARATOR + encoder.encodeToString(salt)
+            + FIELD_SEPARATOR + encoder.encodeToString(hashedPassword);
     }
 
 
     public static boolean verifyPassword(String password, String hashedPassword) {
-        var passArray = hashedPassword.split(HASH_SALT_SEPARATOR);
-        var expectedHash = Base64.getDecoder().decode(passArray[0]);
-        var expectedSalt = Base64.getDecoder().decode(passArray[1]);
-        byte[] derivedKey;
-        try {
-            derivedKey = Hkdf.computeHkdf(
-                "HmacSha256",
-                password.getBytes(StandardCharsets.UTF_8),
-                expectedSalt,
-                new byte[0],
-                DERIVED_KEY_LENGTH
-            );
-        } catch (GeneralSecurityException e) {
-            throw new RuntimeException(e);
+        var start = System.nanoTime();
+        var stored = parse(hashedPassword);
+        var profile = stored.profile();
+        var derivedKey = profile.strategy().derive(password, stored.salt(), profile.cost(), stored.hash().length);
+        VERIFY_LATENCY.recordSince(start);
+        return constantTimeEquals(derivedKey, stored.hash());
+    }
+
+    public static boolean needsRehash(String hashedPassword) {
+        return !parse(hashedPassword).profile().equals(defaultProfile);
+    }
+
+    private static StoredHash parse(String hashedPassword) {
+        var decoder = Base64.getDecoder();
+        if (!hashedPassword.startsWith(FIELD_SEPARATOR)) {
+            var passArray = hashedPassword.split(HASH_SALT_SEPARATOR);
+            return new StoredHash(HashProfile.LEGACY_HKDF, decoder.decode(passArray[1]), decoder.decode(passArray[0]));
+        }
+        var fields = hashedPassword.substring(1).split(Pattern.quote(FIELD_SEPARATOR));
+        if (fields.length != 4 || !fields[1].startsWith(COST_PREFIX)) {
+            throw new IllegalArgumentException("Malformed password hash");
         }
-        return constantTimeEquals(derivedKey, expectedHash);
+        var profile = new HashProfile(
+            PasswordHashStrategies.byId(fields[0]),
+            Integer.parseInt(fields[1].substring(COST_PREFIX.length())));
+        return new StoredHash(profile, decoder.decode(fields[2]), decoder.decode(fields[3]));
     }
 
     private static byte [] generateSalt(){
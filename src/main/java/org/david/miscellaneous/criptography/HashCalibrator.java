@@ -0,0 +1,60 @@
+package org.david.miscellaneous.criptography;
+import module java.base;
+
+/*
+ * Picks the cost for each tunable algorithm that lands closest to a target time per hash on this
+ * machine. Run it on the production hardware (gradle calibratePasswordHash -PtargetMillis=250) and
+ * set PASSWORD_HASH_PROFILE to the suggested value.
+ */
+public class HashCalibrator {
+    private static final int DEFAULT_TARGET_MILLIS = 250;
+    private static final int STARTING_COST = 10_000;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+    private static final int REFINE_ROUNDS = 2;
+    private static final List<PasswordHashStrategy> TUNABLE = List.of(
+        PasswordHashStrategies.PBKDF2_SHA256,
+        PasswordHashStrategies.PBKDF2_SHA512);
+
+    public record Calibration(HashProfile profile, double millisPerHash) {
+    }
+
+    public static void main(String[] args) {
+        var targetMillis = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_TARGET_MILLIS;
+        System.out.printf("Calibrating for %d ms per hash on %d cores%n", targetMillis, Runtime.getRuntime().availableProcessors());
+        for (var strategy : TUNABLE) {
+            var calibration = calibrate(strategy, targetMillis);
+            System.out.printf("%-16s cost %-9d %.1f ms   PASSWORD_HASH_PROFILE=%s%n",
+                strategy.id(), calibration.profile().cost(), calibration.millisPerHash(), calibration.profile());
+        }
+    }
+
+    public static Calibration calibrate(PasswordHashStrategy strategy, int targetMillis) {
+        // the first measurement only gets the derivation JIT compiled
+        measure(strategy, STARTING_COST);
+        var cost = STARTING_COST;
+        var millis = measure(strategy, cost);
+        // double until we overshoot, then scale linearly since PBKDF2 time is proportional to the cost
+        while (millis < targetMillis) {
+            cost *= 2;
+            millis = measure(strategy, cost);
+        }
+        for (var round = 0; round < REFINE_ROUNDS; round++) {
+            cost = (int) Math.max(1, cost * (targetMillis / millis));
+            millis = measure(strategy, cost);
+        }
+        return new Calibration(new HashProfile(strategy, cost), millis);
+    }
+
+    private static double measure(PasswordHashStrategy strategy, int cost) {
+        var salt = new byte[32];
+        for (var i = 0; i < WARMUP_ROUNDS; i++) {
+            strategy.derive("calibration-password", salt, cost, strategy.keyLength());
+        }
+        var start = System.nanoTime();
+        for (var i = 0; i < MEASURED_ROUNDS; i++) {
+            strategy.derive("calibration-password", salt, cost, strategy.keyLength());
+        }
+        return (System.nanoTime() - start) / 1e6 / MEASURED_ROUNDS;
+    }
+}
@@ -0,0 +1,207 @@
+package org.david.miscellaneous.criptography;
+import module java.base;
+import org.david.miscellaneous.custom_exceptions.CustomExceptions.*;
+import org.david.miscellaneous.metrics.LatencyHistogram;
+import org.david.miscellaneous.metrics.MetricsRegistry;
+import org.david.miscellaneous.metrics.RequestTiming;
+
+/*
+ * Key derivation is CPU bound, running it on the request virtual threads lets a login storm schedule
+ * an unbounded number of derivations and starve every other route. Hashing runs here instead, on a
+ * core sized pool with a bounded queue, and anything that doesn't fit is rejected with a 503.
+ */
+public class HashExecutor {
+    private static final int QUEUE_SLOTS_PER_THREAD = 64;
+    private static final int BULK_SLICE_SIZE = 32;
+    private static final long RETRY_AFTER_SECONDS = 1;
+    private static final ServiceUnavailableException BUSY =
+        new ServiceUnavailableException("The server is busy, try again later", RETRY_AFTER_SECONDS);
+
+    public static final HashExecutor instance = new HashExecutor(
+        Runtime.getRuntime().availableProcessors(),
+        Runtime.getRuntime().availableProcessors() * QUEUE_SLOTS_PER_THREAD);
+    private static final LatencyHistogram QUEUE_WAIT = MetricsRegistry.instance.histogram(
+        "crypt_queue_wait_seconds", "Time a hash waited for a crypt worker", "");
+
+    static {
+        var registry = MetricsRegistry.instance;
+        registry.gauge("crypt_queue_depth", "Hashes waiting for a crypt worker", "", () -> instance.executor.getQueue().size());
+        registry.gauge("crypt_active_workers", "Crypt workers busy hashing", "", instance.executor::getActiveCount);
+        registry.counter("crypt_rejected_total", "Hashes rejected because the queue was full", "", instance.rejected::sum);
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final int threads;
+    private final int queueCapacity;
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder queueWaitNanos = new LongAdder();
+    private final LongAdder hashNanos = new LongAdder();
+
+    public record Stats(int threads, int active, int queueDepth, int queueCapacity, long completed, long rejected,
+                        double averageQueueWaitMillis, double averageHashMillis) {
+    }
+
+    public HashExecutor(int threads, int queueCapacity) {
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+        var threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(
+            threads,
+            threads,
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            task -> Thread.ofPlatform()
+                .name("crypt-" + threadCount.incrementAndGet())
+                .daemon(true)
+                .unstarted(task),
+            new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public String hash(String password) {
+        return execute(() -> CryptManager.hashPassword(password));
+    }
+
+    public boolean verify(String password, String hashedPassword) {
+        return execute(() -> CryptManager.verifyPassword(password, hashedPassword));
+    }
+
+    /*
+     * For hashes nobody is waiting on, like upgrading a stored hash after a login. They only take a
+     * worker while the queue is less than half full and are dropped otherwise, never rejected with a
+     * 503, so the requests that need the pool keep their capacity. Empty when dropped.
+     */
+    public Optional<String> hashIfIdle(String password) {
+        if (executor.getQueue().size() >= queueCapacity / 2) {
+            return Optional.empty();
+        }
+        Future<String> future;
+        try {
+            future = submit(() -> CryptManager.hashPassword(password), System.nanoTime(), new long[1]);
+        } catch (RejectedExecutionException e) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(await(future));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            return Optional.empty();
+        }
+    }
+
+    /*
+     * Bulk hashing is split in small slices with at most half of the pool busy with them at a time,
+     * so logins queued behind an import still get a worker quickly.
+     */
+    public List<String> hashAll(List<String> passwords) {
+        var submittedAt = System.nanoTime();
+        var hashes = new String[passwords.size()];
+        var inFlight = new Semaphore(Math.max(1, threads / 2));
+        var slices = new ArrayList<Future<?>>();
+        try {
+            for (var from = 0; from < passwords.size(); from += BULK_SLICE_SIZE) {
+                var start = from;
+                var end = Math.min(from + BULK_SLICE_SIZE, passwords.size());
+                inFlight.acquire();
+                try {
+                    slices.add(executor.submit(() -> {
+                        try {
+                            for (var i = start; i < end; i++) {
+                                hashes[i] = CryptManager.hashPassword(passwords.get(i));
+                            }
+                        } finally {
+                            inFlight.release();
+                        }
+                    }));
+                } catch (RejectedExecutionException e) {
+                    inFlight.release();
+                    throw busy();
+                }
+            }
+            for (var slice : slices) {
+                await(slice);
+            }
+            RequestTiming.recordSince(RequestTiming.Phase.CRYPT, submittedAt);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            slices.forEach(slice -> slice.cancel(true));
+            throw new IllegalStateException("Interrupted while hashing passwords", e);
+        }
+        return List.of(hashes);
+    }
+
+    public <T> T execute(Callable<T> task) {
+        var enqueuedAt = System.nanoTime();
+        // written by the worker, read here once the future is done
+        var workerStartedAt = new long[1];
+        Future<T> future;
+        try {
+            future = submit(task, enqueuedAt, workerStartedAt);
+        } catch (RejectedExecutionException e) {
+            throw busy();
+        }
+        try {
+            var result = await(future);
+            recordTiming(enqueuedAt, workerStartedAt[0]);
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new IllegalStateException("Interrupted while waiting for a password hash", e);
+        }
+    }
+
+    public Stats stats() {
+        var done = completed.sum();
+        return new Stats(
+            threads,
+            executor.getActiveCount(),
+            executor.getQueue().size(),
+            queueCapacity,
+            done,
+            rejected.sum(),
+            done == 0 ? 0 : queueWaitNanos.sum() / 1e6 / done,
+            done == 0 ? 0 : hashNanos.sum() / 1e6 / done);
+    }
+
+    private <T> Future<T> submit(Callable<T> task, long enqueuedAt, long[] workerStartedAt) {
+        return executor.submit(() -> {
+            var startedAt = System.nanoTime();
+            workerStartedAt[0] = startedAt;
+            queueWaitNanos.add(startedAt - enqueuedAt);
+            QUEUE_WAIT.recordNanos(startedAt - enqueuedAt);
+            try {
+                return task.call();
+            } finally {
+                hashNanos.add(System.nanoTime() - startedAt);
+                completed.increment();
+            }
+        });
+    }
+
+    private static void recordTiming(long enqueuedAt, long startedAt) {
+        var timing = RequestTiming.current();
+        if (timing != null) {
+            timing.add(RequestTiming.Phase.CRYPT_QUEUE, startedAt - enqueuedAt);
+            timing.add(RequestTiming.Phase.CRYPT, System.nanoTime() - startedAt);
+        }
+    }
+
+    private ServiceUnavailableException busy() {
+        rejected.increment();
+        return BUSY;
+    }
+
+    private static <T> T await(Future<T> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
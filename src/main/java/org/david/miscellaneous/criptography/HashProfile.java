@@ -0,0 +1,21 @@
+package org.david.miscellaneous.criptography;
+
+public record HashProfile(PasswordHashStrategy strategy, int cost) {
+    public static final HashProfile LEGACY_HKDF = new HashProfile(PasswordHashStrategies.HKDF_SHA256, 0);
+    public static final HashProfile PBKDF2_SHA256_LOW = new HashProfile(PasswordHashStrategies.PBKDF2_SHA256, 100_000);
+    public static final HashProfile PBKDF2_SHA256 = new HashProfile(PasswordHashStrategies.PBKDF2_SHA256, 600_000);
+    public static final HashProfile PBKDF2_SHA512 = new HashProfile(PasswordHashStrategies.PBKDF2_SHA512, 210_000);
+
+    // "<algorithm>:<cost>", e.g. pbkdf2-sha256:600000, the same shape the calibrator prints
+    public static HashProfile parse(String value) {
+        var parts = value.strip().split(":");
+        var strategy = PasswordHashStrategies.byId(parts[0]);
+        var cost = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+        return new HashProfile(strategy, cost);
+    }
+
+    @Override
+    public String toString() {
+        return strategy.id() + ":" + cost;
+    }
+}
@@ -0,0 +1,85 @@
+package org.david.miscellaneous.criptography;
+import module java.base;
+import com.google.crypto.tink.subtle.Hkdf;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+public interface PasswordHashStrategies {
+    PasswordHashStrategy HKDF_SHA256 = new HkdfSha256();
+    PasswordHashStrategy PBKDF2_SHA256 = new Pbkdf2("pbkdf2-sha256", "PBKDF2WithHmacSHA256", 32);
+    PasswordHashStrategy PBKDF2_SHA512 = new Pbkdf2("pbkdf2-sha512", "PBKDF2WithHmacSHA512", 64);
+
+    Map<String, PasswordHashStrategy> BY_ID = Map.of(
+        HKDF_SHA256.id(), HKDF_SHA256,
+        PBKDF2_SHA256.id(), PBKDF2_SHA256,
+        PBKDF2_SHA512.id(), PBKDF2_SHA512);
+
+    static PasswordHashStrategy byId(String id) {
+        var strategy = BY_ID.get(id);
+        if (strategy == null) {
+            throw new IllegalArgumentException("Unknown password hash algorithm: " + id);
+        }
+        return strategy;
+    }
+
+    // the original single round derivation, kept so existing hashes keep verifying until rehashed
+    class HkdfSha256 implements PasswordHashStrategy {
+        @Override
+        public String id() {
+            return "hkdf-sha256";
+        }
+
+        @Override
+        public int keyLength() {
+            return 64;
+        }
+
+        @Override
+        public byte[] derive(String password, byte[] salt, int cost, int keyLength) {
+            try {
+                return Hkdf.computeHkdf(
+                    "HmacSha256",
+                    password.getBytes(StandardCharsets.UTF_8),
+                    salt,
+                    new byte[0],
+                    keyLength);
+            } catch (GeneralSecurityException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    class Pbkdf2 implements PasswordHashStrategy {
+        private final String id;
+        private final String jcaAlgorithm;
+        private final int keyLength;
+
+        Pbkdf2(String id, String jcaAlgorithm, int keyLength) {
+            this.id = id;
+            this.jcaAlgorithm = jcaAlgorithm;
+            this.keyLength = keyLength;
+        }
+
+        @Override
+        public String id() {
+            return id;
+        }
+
+        @Override
+        public int keyLength() {
+            return keyLength;
+        }
+
+        @Override
+        public byte[] derive(String password, byte[] salt, int cost, int keyLength) {
+            var spec = new PBEKeySpec(password.toCharArray(), salt, cost, keyLength * Byte.SIZE);
+            try {
+                return SecretKeyFactory.getInstance(jcaAlgorithm).generateSecret(spec).getEncoded();
+            } catch (GeneralSecurityException e) {
+                throw new RuntimeException(e);
+            } finally {
+                spec.clearPassword();
+            }
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package org.david.miscellaneous.criptography;
+
+public interface PasswordHashStrategy {
+    String id();
+
+    int keyLength();
+
+    byte[] derive(String password, byte[] salt, int cost, int keyLength);
+}
@@ -0,0 +1,147 @@
+package org.david.miscellaneous.criptography;
+import module java.base;
+import com.google.crypto.tink.InsecureSecretKeyAccess;
+import com.google.crypto.tink.KeysetHandle;
+import com.google.crypto.tink.Mac;
+import com.google.crypto.tink.RegistryConfiguration;
+import com.google.crypto.tink.TinkJsonProtoKeysetFormat;
+import com.google.crypto.tink.mac.MacConfig;
+import com.google.crypto.tink.mac.PredefinedMacParameters;
+
+/*
+ * Short lived session tokens: base64url(payload).base64url(tag), the tag being a Tink HMAC over the
+ * payload. Checking one is a single HMAC and a map lookup, no database or key derivation. Tink prefixes
+ * the tag with the key id, so tokens signed with a rotated out (but still kept) key keep verifying.
+ */
+public class TokenManager {
+    private static final String VERSION = "v1";
+    private static final String PAYLOAD_SEPARATOR = "|";
+    private static final char TOKEN_SEPARATOR = '.';
+    private static final int KEPT_KEYS = 3;
+
+    private final Duration ttl;
+    private final LongSupplier clockMillis;
+    private final ReentrantLock rotationLock = new ReentrantLock();
+    private final ConcurrentHashMap<Integer, Long> revokedBefore = new ConcurrentHashMap<>();
+    private volatile KeysetHandle keyset;
+    private volatile Mac mac;
+
+    public record Claims(int userId, String email, long issuedAt, long expiresAt) {
+    }
+
+    public record IssuedToken(String token, long expiresAt) {
+    }
+
+    static {
+        try {
+            MacConfig.register();
+        } catch (GeneralSecurityException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public TokenManager(Duration ttl) {
+        this(ttl, System::currentTimeMillis);
+    }
+
+    public TokenManager(Duration ttl, LongSupplier clockMillis) {
+        this.ttl = ttl;
+        this.clockMillis = clockMillis;
+        try {
+            useKeyset(KeysetHandle.generateNew(PredefinedMacParameters.HMAC_SHA256_256BITTAG));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not generate the session signing key", e);
+        }
+    }
+
+    // for deployments sharing keys between instances, a cleartext Tink JSON keyset
+    public static TokenManager fromJsonKeyset(Duration ttl, String jsonKeyset) {
+        var manager = new TokenManager(ttl);
+        try {
+            manager.useKeyset(TinkJsonProtoKeysetFormat.parseKeyset(jsonKeyset, InsecureSecretKeyAccess.get()));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Invalid session keyset", e);
+        }
+        return manager;
+    }
+
+    public void rotateKey() {
+        rotationLock.lock();
+        try {
+            var builder = KeysetHandle.newBuilder(keyset);
+            builder.addEntry(KeysetHandle.generateEntryFromParameters(PredefinedMacParameters.HMAC_SHA256_256BITTAG)
+                .withRandomId()
+                .makePrimary());
+            // entry 0 is always the oldest one since new keys are appended
+            while (builder.size() > KEPT_KEYS) {
+                builder.deleteAt(0);
+            }
+            useKeyset(builder.build());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not rotate the session signing key", e);
+        } finally {
+            rotationLock.unlock();
+        }
+    }
+
+    public IssuedToken issue(int userId, String email) {
+        var issuedAt = clockMillis.getAsLong();
+        var expiresAt = issuedAt + ttl.toMillis();
+        var payload = String.join(PAYLOAD_SEPARATOR,
+            VERSION, Integer.toString(userId), Long.toString(issuedAt), Long.toString(expiresAt), email)
+            .getBytes(StandardCharsets.UTF_8);
+        try {
+            var encoder = Base64.getUrlEncoder().withoutPadding();
+            var token = encoder.encodeToString(payload) + TOKEN_SEPARATOR + encoder.encodeToString(mac.computeMac(payload));
+            return new IssuedToken(token, expiresAt);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not sign the session token", e);
+        }
+    }
+
+    public Optional<Claims> verify(String token) {
+        var separator = token.indexOf(TOKEN_SEPARATOR);
+        if (separator <= 0) {
+            return Optional.empty();
+        }
+        byte[] payload;
+        try {
+            var decoder = Base64.getUrlDecoder();
+            payload = decoder.decode(token.substring(0, separator));
+            mac.verifyMac(decoder.decode(token.substring(separator + 1)), payload);
+        } catch (IllegalArgumentException | GeneralSecurityException e) {
+            return Optional.empty();
+        }
+        var fields = new String(payload, StandardCharsets.UTF_8).split(Pattern.quote(PAYLOAD_SEPARATOR), 5);
+        if (fields.length != 5 || !VERSION.equals(fields[0])) {
+            return Optional.empty();
+        }
+        var claims = new Claims(Integer.parseInt(fields[1]), fields[4], Long.parseLong(fields[2]), Long.parseLong(fields[3]));
+        if (claims.expiresAt() <= clockMillis.getAsLong()) {
+            return Optional.empty();
+        }
+        var revokedAt = revokedBefore.get(claims.userId());
+        if (revokedAt != null && claims.issuedAt() <= revokedAt) {
+            return Optional.empty();
+        }
+        return Optional.of(claims);
+    }
+
+    public void revoke(int userId) {
+        var now = clockMillis.getAsLong();
+        revokedBefore.put(userId, now);
+        // a revocation older than the ttl can't match any token that still verifies
+        var cutoff = now - ttl.toMillis();
+        revokedBefore.values().removeIf(revokedAt -> revokedAt < cutoff);
+    }
+
+    public int revocations() {
+        return revokedBefore.size();
+    }
+
+    private void useKeyset(KeysetHandle handle) throws GeneralSecurityException {
+        var primitive = handle.getPrimitive(RegistryConfiguration.get(), Mac.class);
+        keyset = handle;
+        mac = primitive;
+    }
+}
@@ -41,7 +41,7 @@ public interface CustomExceptions {
             if(message == null || message.isBlank()){
                 message = "";
             }
-            super(message, 40);
+            super(message, 400);
         }
     }
     class GenericSQLException extends HttpCustomException{
@@ -52,4 +52,36 @@ public interface CustomExceptions {
             super(message, 400);
         }
     }
+    class ServiceUnavailableException extends HttpCustomException{
+        public ServiceUnavailableException(String message, long retryAfterSeconds){
+            if(message == null || message.isBlank()){
+                message = "";
+            }
+            super(message, 503, retryAfterSeconds);
+        }
+    }
+    class ConflictException extends HttpCustomException{
+        public ConflictException(String message){
+            if(message == null || message.isBlank()){
+                message = "";
+            }
+            super(message, 409);
+        }
+    }
+    class UnauthorizedException extends HttpCustomException{
+        public UnauthorizedException(String message){
+            if(message == null || message.isBlank()){
+                message = "";
+            }
+            super(message, 401);
+        }
+    }
+    class TooManyRequestsException extends HttpCustomException{
+        public TooManyRequestsException(String message, long retryAfterSeconds){
+            if(message == null || message.isBlank()){
+                message = "";
+            }
+            super(message, 429, retryAfterSeconds);
+        }
+    }
 }
@@ -1,14 +1,50 @@
 package org.david.miscellaneous.custom_exceptions;
 
+import org.david.miscellaneous.serialization.JsonCodecs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/*
+ * Errors that map straight to a response. The status and message are all the exception handler uses,
+ * so no stack trace is captured, and the JSON body is rendered into a final field by the constructor.
+ * Together that lets the common failures be thrown from shared constants and answered without
+ * allocating, and the final field makes the body safe to read from every request thread.
+ */
 public class HttpCustomException extends RuntimeException {
     public final int statusCode;
     public final String message;
+    public final long retryAfterSeconds;
+    private final byte[] body;
+
     public HttpCustomException(String message, int statusCode) {
-        var validatedMesage = "";
-        if(message != null && !message.isBlank()){
-            validatedMesage = message;
-        }
-        this.message = validatedMesage;
+        this(message, statusCode, 0);
+    }
+    public HttpCustomException(String message, int statusCode, long retryAfterSeconds) {
+        super(validated(message), null, false, false);
+        this.message = getMessage();
         this.statusCode = statusCode;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.body = render(this.message);
+    }
+
+    private static String validated(String message) {
+        return message == null || message.isBlank() ? "" : message;
+    }
+
+    // {"error": message}
+    public byte[] body() {
+        return body;
+    }
+
+    private static byte[] render(String message) {
+        var out = new ByteArrayOutputStream(message.length() + 16);
+        try (var generator = JsonCodecs.generator(out)) {
+            JsonCodecs.ERROR_MESSAGE.write(generator, message);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
     }
 }
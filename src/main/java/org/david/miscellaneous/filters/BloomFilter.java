@@ -0,0 +1,95 @@
+package org.david.miscellaneous.filters;
+import module java.base;
+
+/*
+ * Lock-free bloom filter over strings. Bits live in an AtomicLongArray so concurrent puts never lose
+ * each other's bits, and probes use double hashing (h1 + i * h2) over a single 64 bit hash.
+ */
+public class BloomFilter {
+
+    private static final double LN2 = Math.log(2);
+
+    private final AtomicLongArray words;
+    private final long bitSize;
+    private final int hashFunctions;
+    private final LongAdder insertions = new LongAdder();
+
+    public BloomFilter(long expectedInsertions, double falsePositiveRate) {
+        if (expectedInsertions <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("expectedInsertions must be positive and falsePositiveRate within (0, 1)");
+        }
+        var bits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (LN2 * LN2));
+        var wordCount = Math.toIntExact(Math.max(1, (bits + 63) >>> 6));
+        this.words = new AtomicLongArray(wordCount);
+        this.bitSize = (long) wordCount << 6;
+        this.hashFunctions = Math.max(1, (int) Math.round((double) bitSize / expectedInsertions * LN2));
+    }
+
+    public void put(String value) {
+        var hash = hash(value);
+        var h1 = (int) hash;
+        var h2 = (int) (hash >>> 32);
+        for (var i = 1; i <= hashFunctions; i++) {
+            setBit(index(h1 + i * h2));
+        }
+        insertions.increment();
+    }
+
+    public boolean mightContain(String value) {
+        var hash = hash(value);
+        var h1 = (int) hash;
+        var h2 = (int) (hash >>> 32);
+        for (var i = 1; i <= hashFunctions; i++) {
+            var bit = index(h1 + i * h2);
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long memoryFootprintBytes() {
+        return (long) words.length() * Long.BYTES;
+    }
+
+    public double expectedFalsePositiveRate() {
+        var inserted = insertions.sum();
+        return Math.pow(1 - Math.exp(-(double) hashFunctions * inserted / bitSize), hashFunctions);
+    }
+
+    public long insertions() {
+        return insertions.sum();
+    }
+
+    private long index(int combinedHash) {
+        return (combinedHash & Integer.MAX_VALUE) % bitSize;
+    }
+
+    private void setBit(long bit) {
+        var wordIndex = (int) (bit >>> 6);
+        var mask = 1L << bit;
+        var current = words.get(wordIndex);
+        while ((current & mask) == 0) {
+            var witness = words.compareAndExchange(wordIndex, current, current | mask);
+            if (witness == current) {
+                return;
+            }
+            current = witness;
+        }
+    }
+
+    private static long hash(String value) {
+        var hash = 0xcbf29ce484222325L;
+        for (var i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        // murmur3 finalizer, plain FNV leaves the high bits poorly mixed
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
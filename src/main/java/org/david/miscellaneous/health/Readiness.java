@@ -0,0 +1,34 @@
+package org.david.miscellaneous.health;
+
+/*
+ * Whether the instance should get traffic yet. It starts out waiting for the startup steps and turns
+ * ready once they are all done, /health/ready reports it so a rolling deploy only routes to warm
+ * instances.
+ */
+public class Readiness {
+    private volatile String pendingStep = "startup";
+
+    // for apps and tests that have nothing to warm up
+    public static Readiness ready() {
+        var readiness = new Readiness();
+        readiness.markReady();
+        return readiness;
+    }
+
+    public boolean isReady() {
+        return pendingStep == null;
+    }
+
+    // null once ready
+    public String pendingStep() {
+        return pendingStep;
+    }
+
+    void waitingFor(String step) {
+        pendingStep = step;
+    }
+
+    void markReady() {
+        pendingStep = null;
+    }
+}
@@ -0,0 +1,146 @@
+package org.david.miscellaneous.health;
+import module java.base;
+import org.david.domain.models.ResponseModel;
+import org.david.domain.models.UserModels;
+import org.david.domain.repository.UserStore;
+import org.david.miscellaneous.criptography.CryptManager;
+import org.david.miscellaneous.serialization.JsonCodecs;
+import org.david.miscellaneous.validators.UserValidators;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+/*
+ * The steps between starting the process and serving at full speed: opening the pools, migrating,
+ * and running the hot paths until the JIT has compiled them. They either run before the server
+ * starts, or after it in the background while /health/ready says not yet. A failing background step
+ * is retried with backoff, e.g. until the database comes up.
+ */
+public class Warmup {
+    private static final Logger log = LoggerFactory.getLogger(Warmup.class);
+    private static final Duration FIRST_RETRY_DELAY = Duration.ofMillis(500);
+    private static final Duration MAX_RETRY_DELAY = Duration.ofSeconds(30);
+    private static final String WARMUP_EMAIL = "warmup@warmup.invalid";
+    private static final String WARMUP_PASSWORD = "warmup-password";
+    private static final int CRYPT_ROUNDS = 8;
+    private static final int STORE_READ_EVERY = 10;
+
+    @FunctionalInterface
+    public interface Action {
+        void run() throws Exception;
+    }
+
+    private record Step(String name, Action action) {
+    }
+
+    private final Readiness readiness;
+    private final List<Step> steps = new CopyOnWriteArrayList<>();
+
+    public Warmup(Readiness readiness) {
+        this.readiness = readiness;
+    }
+
+    public Warmup step(String name, Action action) {
+        steps.add(new Step(name, action));
+        return this;
+    }
+
+    // runs every step on the calling thread, the first failure is thrown
+    public void run() throws Exception {
+        var start = System.nanoTime();
+        for (var step : steps) {
+            readiness.waitingFor(step.name());
+            runTimed(step);
+        }
+        readiness.markReady();
+        log.info("Ready after {} ms", (System.nanoTime() - start) / 1_000_000);
+    }
+
+    public Thread runInBackground() {
+        return Thread.ofVirtual().name("warmup").start(() -> {
+            var start = System.nanoTime();
+            for (var step : steps) {
+                readiness.waitingFor(step.name());
+                if (!runUntilDone(step)) {
+                    return;
+                }
+            }
+            readiness.markReady();
+            log.info("Ready after {} ms", (System.nanoTime() - start) / 1_000_000);
+        });
+    }
+
+    private boolean runUntilDone(Step step) {
+        var delay = FIRST_RETRY_DELAY;
+        while (true) {
+            try {
+                runTimed(step);
+                return true;
+            } catch (Exception e) {
+                log.warn("Warmup step {} failed, retrying in {} ms", step.name(), delay.toMillis(), e);
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            delay = delay.multipliedBy(2).compareTo(MAX_RETRY_DELAY) > 0 ? MAX_RETRY_DELAY : delay.multipliedBy(2);
+        }
+    }
+
+    private static void runTimed(Step step) throws Exception {
+        var start = System.nanoTime();
+        step.action().run();
+        log.info("Warmup step {} took {} ms", step.name(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /*
+     * Parses and serializes the bodies of the hot routes, looks users up and verifies a hash with the
+     * configured profile, all without writing anything. The lookups are for an email that can't exist.
+     */
+    public static Action hotPaths(UserStore userStore, int iterations) {
+        return () -> {
+            var body = "{\"email\":\"" + WARMUP_EMAIL + "\",\"password\":\"" + WARMUP_PASSWORD + "\"}";
+            var users = new ArrayList<UserModels.User>();
+            for (var i = 1; i <= 20; i++) {
+                users.add(new UserModels.User(i, "user-" + i + "@warmup.invalid", null));
+            }
+            var page = new ResponseModel<>(List.copyOf(users), null);
+            var hash = CryptManager.hashPassword(WARMUP_PASSWORD);
+            var cryptEvery = Math.max(1, iterations / CRYPT_ROUNDS);
+            for (var i = 0; i < iterations; i++) {
+                var user = UserValidators.validateUserDto(body);
+                try (var generator = JsonCodecs.generator(OutputStream.nullOutputStream())) {
+                    generator.writeStartObject();
+                    JsonCodecs.writeResponse(generator, "users", page, JsonCodecs.USER_LIST);
+                    generator.writeEndObject();
+                }
+                if (i % STORE_READ_EVERY == 0) {
+                    userStore.getSingleUser(user.email());
+                    userStore.getUsersPage(0, 1);
+                }
+                if (i % cryptEvery == 0) {
+                    CryptManager.verifyPassword(user.password(), hash);
+                }
+            }
+        };
+    }
+
+    // read only requests through the whole server stack, the routes that change state are left alone
+    public static Action routes(URI baseUri, int requests) {
+        return () -> {
+            try (var client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build()) {
+                var page = HttpRequest.newBuilder(baseUri.resolve("/users/get-all?limit=1")).GET().build();
+                var live = HttpRequest.newBuilder(baseUri.resolve("/health/live")).GET().build();
+                for (var i = 0; i < requests; i++) {
+                    client.send(page, HttpResponse.BodyHandlers.discarding());
+                    client.send(live, HttpResponse.BodyHandlers.discarding());
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,126 @@
+package org.david.miscellaneous.metrics;
+import module java.base;
+import io.javalin.http.HandlerType;
+
+/*
+ * Process wide metrics rendered in the Prometheus text format. Histograms are registered once (static
+ * fields or on the first request of a route) and then recorded into without allocating; gauges are
+ * only evaluated when /metrics is scraped.
+ */
+public class MetricsRegistry {
+    public static final MetricsRegistry instance = new MetricsRegistry();
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+    private static final int MAX_STATUS = 600;
+    private static final String UNMATCHED_ROUTE = "unmatched";
+
+    private final ConcurrentHashMap<String, SummaryFamily> summaries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, GaugeFamily> gauges = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LatencyHistogram>[] routes;
+    private final AtomicLongArray statuses = new AtomicLongArray(MAX_STATUS);
+
+    private record SummaryFamily(String help, ConcurrentHashMap<String, LatencyHistogram> series) {
+    }
+
+    private record GaugeFamily(String help, String type, ConcurrentHashMap<String, DoubleSupplier> series) {
+    }
+
+    @SuppressWarnings("unchecked")
+    private MetricsRegistry() {
+        var methods = HandlerType.values();
+        routes = new ConcurrentHashMap[methods.length];
+        for (var method : methods) {
+            routes[method.ordinal()] = new ConcurrentHashMap<>();
+        }
+    }
+
+    public LatencyHistogram histogram(String name, String help, String labels) {
+        return summaries
+            .computeIfAbsent(name, _ -> new SummaryFamily(help, new ConcurrentHashMap<>()))
+            .series()
+            .computeIfAbsent(labels, _ -> new LatencyHistogram());
+    }
+
+    public void gauge(String name, String help, String labels, DoubleSupplier value) {
+        gauges.computeIfAbsent(name, _ -> new GaugeFamily(help, "gauge", new ConcurrentHashMap<>()))
+            .series()
+            .put(labels, value);
+    }
+
+    public void counter(String name, String help, String labels, LongSupplier value) {
+        gauges.computeIfAbsent(name, _ -> new GaugeFamily(help, "counter", new ConcurrentHashMap<>()))
+            .series()
+            .put(labels, () -> value.getAsLong());
+    }
+
+    public void recordRequest(HandlerType method, String matchedPath, int status, long micros) {
+        var path = matchedPath == null || matchedPath.isEmpty() ? UNMATCHED_ROUTE : matchedPath;
+        var byPath = routes[method.ordinal()];
+        var histogram = byPath.get(path);
+        if (histogram == null) {
+            histogram = byPath.computeIfAbsent(path, _ -> histogram(
+                "http_server_request_duration_seconds",
+                "Request latency by route",
+                "method=\"" + method.name() + "\",route=\"" + escape(path) + "\""));
+        }
+        histogram.recordMicros(micros);
+        if (status > 0 && status < MAX_STATUS) {
+            statuses.incrementAndGet(status);
+        }
+    }
+
+    public String scrape() {
+        var out = new StringBuilder(8 * 1024);
+        new TreeMap<>(summaries).forEach((name, family) -> {
+            header(out, name, family.help(), "summary");
+            new TreeMap<>(family.series()).forEach((labels, histogram) -> {
+                for (var quantile : QUANTILES) {
+                    sample(out, name, join(labels, "quantile=\"" + quantile + "\""),
+                        histogram.percentileMicros(quantile * 100) / 1e6);
+                }
+                sample(out, name + "_sum", labels, histogram.totalMicros() / 1e6);
+                sample(out, name + "_count", labels, histogram.count());
+                sample(out, name + "_max", labels, histogram.maxMicros() / 1e6);
+            });
+        });
+        header(out, "http_server_responses_total", "Responses by status code", "counter");
+        for (var status = 0; status < MAX_STATUS; status++) {
+            var count = statuses.get(status);
+            if (count > 0) {
+                sample(out, "http_server_responses_total", "status=\"" + status + "\"", count);
+            }
+        }
+        new TreeMap<>(gauges).forEach((name, family) -> {
+            header(out, name, family.help(), family.type());
+            new TreeMap<>(family.series()).forEach((labels, value) -> sample(out, name, labels, value.getAsDouble()));
+        });
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    private static String join(String labels, String extra) {
+        return labels.isEmpty() ? extra : labels + "," + extra;
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
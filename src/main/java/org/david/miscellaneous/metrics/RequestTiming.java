@@ -0,0 +1,139 @@
+package org.david.miscellaneous.metrics;
+import module java.base;
+
+/*
+ * Where the time of one request went: a duration and a count per phase, recorded by the code that
+ * runs the phase and rendered as a Server-Timing header or a slow request log line. Every request has
+ * its own virtual thread, so the timing of the current request is a thread local; code running outside
+ * a timed request records into nothing. Instances are recycled through a small striped pool.
+ */
+public final class RequestTiming {
+    private static final ThreadLocal<RequestTiming> CURRENT = new ThreadLocal<>();
+    private static final int POOL_SIZE = 64;
+    private static final AtomicReferenceArray<RequestTiming> pool = new AtomicReferenceArray<>(POOL_SIZE);
+
+    /*
+     * The header tells a client which phases its request went through, e.g. whether a login reached
+     * the hash, so it is meant for trusted callers and stays off by default.
+     */
+    public record Settings(boolean serverTimingHeader, Duration slowRequestThreshold, int slowRequestLogsPerSecond) {
+        public static final Settings DEFAULTS = new Settings(false, Duration.ofSeconds(1), 10);
+    }
+
+    public enum Phase {
+        PARSE("parse"),
+        DB_GATE("db-gate"),
+        DB_POOL("db-pool"),
+        DB_QUERY("db-query"),
+        CRYPT_QUEUE("crypt-queue"),
+        CRYPT("crypt"),
+        SERIALIZE("serialize");
+
+        final String metricName;
+
+        Phase(String metricName) {
+            this.metricName = metricName;
+        }
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private final long[] nanos = new long[PHASES.length];
+    private final int[] counts = new int[PHASES.length];
+    private long startedAt;
+
+    private RequestTiming() {
+    }
+
+    public static RequestTiming start() {
+        var slot = (int) Thread.currentThread().threadId() & (POOL_SIZE - 1);
+        var timing = pool.getAndSet(slot, null);
+        if (timing == null) {
+            timing = new RequestTiming();
+        }
+        timing.startedAt = System.nanoTime();
+        CURRENT.set(timing);
+        return timing;
+    }
+
+    public static RequestTiming current() {
+        return CURRENT.get();
+    }
+
+    // the timing must not be used after this, it goes back to the pool
+    public static void finish(RequestTiming timing) {
+        CURRENT.remove();
+        Arrays.fill(timing.nanos, 0);
+        Arrays.fill(timing.counts, 0);
+        var slot = (int) Thread.currentThread().threadId() & (POOL_SIZE - 1);
+        pool.compareAndSet(slot, null, timing);
+    }
+
+    public static void record(Phase phase, long nanos) {
+        var timing = CURRENT.get();
+        if (timing != null) {
+            timing.add(phase, nanos);
+        }
+    }
+
+    public static void recordSince(Phase phase, long startNanos) {
+        var timing = CURRENT.get();
+        if (timing != null) {
+            timing.add(phase, System.nanoTime() - startNanos);
+        }
+    }
+
+    /*
+     * For work handed to another thread: the owner blocks until that thread is done, and waiting on the
+     * result orders these writes before its next read.
+     */
+    public void add(Phase phase, long nanos) {
+        this.nanos[phase.ordinal()] += nanos;
+        counts[phase.ordinal()]++;
+    }
+
+    public long nanos(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    public int count(Phase phase) {
+        return counts[phase.ordinal()];
+    }
+
+    public long elapsedNanos() {
+        return System.nanoTime() - startedAt;
+    }
+
+    // parse;dur=0.120, db-query;dur=1.045;desc="2", total;dur=3.300 with durations in ms
+    public String serverTiming() {
+        var out = new StringBuilder(160);
+        for (var phase : PHASES) {
+            var count = counts[phase.ordinal()];
+            if (count == 0) {
+                continue;
+            }
+            out.append(phase.metricName).append(";dur=");
+            appendMillis(out, nanos[phase.ordinal()]);
+            if (count > 1) {
+                out.append(";desc=\"").append(count).append('"');
+            }
+            out.append(", ");
+        }
+        out.append("total;dur=");
+        appendMillis(out, elapsedNanos());
+        return out.toString();
+    }
+
+    private static void appendMillis(StringBuilder out, long nanos) {
+        var micros = nanos / 1_000;
+        out.append(micros / 1_000).append('.');
+        var fraction = micros % 1_000;
+        if (fraction < 100) {
+            out.append('0');
+        }
+        if (fraction < 10) {
+            out.append('0');
+        }
+        out.append(fraction);
+    }
+}
@@ -0,0 +1,63 @@
+package org.david.miscellaneous.metrics;
+import module java.base;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * Logs requests slower than the threshold with their phase breakdown. When everything is slow every
+ * request qualifies, so at most logsPerSecond lines are written per second and the rest are counted.
+ */
+public class SlowRequestLog {
+    private static final Logger log = LoggerFactory.getLogger(SlowRequestLog.class);
+    private static final long SECOND_NANOS = 1_000_000_000L;
+
+    private final long thresholdNanos;
+    private final int logsPerSecond;
+    private final LongSupplier nanoClock;
+    private final AtomicLong windowStart;
+    private final AtomicInteger loggedInWindow = new AtomicInteger();
+    private final LongAdder slow = new LongAdder();
+
+    public SlowRequestLog(Duration threshold, int logsPerSecond) {
+        this(threshold, logsPerSecond, System::nanoTime);
+        MetricsRegistry.instance.counter("http_slow_requests_total", "Requests slower than the slow request threshold", "", slow::sum);
+    }
+
+    public SlowRequestLog(Duration threshold, int logsPerSecond, LongSupplier nanoClock) {
+        this.thresholdNanos = threshold.toNanos();
+        this.logsPerSecond = logsPerSecond;
+        this.nanoClock = nanoClock;
+        this.windowStart = new AtomicLong(nanoClock.getAsLong());
+    }
+
+    // true when the request was slow and a line was written for it
+    public boolean record(String method, String route, int status, RequestTiming timing) {
+        var elapsedNanos = timing.elapsedNanos();
+        if (elapsedNanos < thresholdNanos) {
+            return false;
+        }
+        slow.increment();
+        if (!tryLog()) {
+            return false;
+        }
+        log.warn("Slow request {} {} {} in {} ms: {}", method, route, status, elapsedNanos / 1_000_000, timing.serverTiming());
+        return true;
+    }
+
+    public long slowRequests() {
+        return slow.sum();
+    }
+
+    private boolean tryLog() {
+        if (logsPerSecond <= 0) {
+            return false;
+        }
+        var now = nanoClock.getAsLong();
+        var start = windowStart.get();
+        // whoever moves the window resets the count, the others just count against the new window
+        if (now - start >= SECOND_NANOS && windowStart.compareAndSet(start, now)) {
+            loggedInWindow.set(0);
+        }
+        return loggedInWindow.incrementAndGet() <= logsPerSecond;
+    }
+}
@@ -0,0 +1,66 @@
+package org.david.miscellaneous.serialization;
+
+import io.javalin.json.JsonMapper;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/*
+ * Hands Javalin a JSON mapper without building one: the shared ObjectMapper is only created when the
+ * first body needs it, so configuring the server does not pay for Jackson.
+ */
+public class DeferredJsonMapper implements JsonMapper {
+    private final Supplier<JsonMapper> factory;
+    private volatile JsonMapper delegate;
+
+    public DeferredJsonMapper(Supplier<JsonMapper> factory) {
+        this.factory = factory;
+    }
+
+    private JsonMapper delegate() {
+        var mapper = delegate;
+        if (mapper == null) {
+            synchronized (this) {
+                mapper = delegate;
+                if (mapper == null) {
+                    mapper = factory.get();
+                    delegate = mapper;
+                }
+            }
+        }
+        return mapper;
+    }
+
+    @NotNull
+    @Override
+    public String toJsonString(@NotNull Object obj, @NotNull Type type) {
+        return delegate().toJsonString(obj, type);
+    }
+
+    @NotNull
+    @Override
+    public InputStream toJsonStream(@NotNull Object obj, @NotNull Type type) {
+        return delegate().toJsonStream(obj, type);
+    }
+
+    @Override
+    public void writeToOutputStream(@NotNull Stream<?> stream, @NotNull OutputStream outputStream) {
+        delegate().writeToOutputStream(stream, outputStream);
+    }
+
+    @NotNull
+    @Override
+    public <T> T fromJsonString(@NotNull String json, @NotNull Type targetType) {
+        return delegate().fromJsonString(json, targetType);
+    }
+
+    @NotNull
+    @Override
+    public <T> T fromJsonStream(@NotNull InputStream json, @NotNull Type targetType) {
+        return delegate().fromJsonStream(json, targetType);
+    }
+}
@@ -0,0 +1,246 @@
+package org.david.miscellaneous.serialization;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SerializedString;
+import io.javalin.http.ContentType;
+import io.javalin.http.Context;
+import org.david.domain.models.Errors;
+import org.david.domain.models.ResponseModel;
+import org.david.domain.models.UserModels;
+import org.david.miscellaneous.metrics.RequestTiming;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/*
+ * Hand written codecs for the bodies every route reads or writes, on Jackson's streaming API: no
+ * reflection, no wrapper maps and no intermediate strings. Responses go through a generator straight
+ * into the response stream, with its buffers taken from the pool of the shared mapper. Null fields
+ * are left out, like NON_NULL does for the reflective path.
+ */
+public final class JsonCodecs {
+    private static final JsonFactory factory = JsonMappers.shared.getFactory();
+    private static final SerializedString ID = new SerializedString("id");
+    private static final SerializedString EMAIL = new SerializedString("email");
+    private static final SerializedString PASSWORD = new SerializedString("password");
+    private static final SerializedString RESPONSE = new SerializedString("response");
+    private static final SerializedString ERROR = new SerializedString("error");
+    private static final SerializedString ERRORS = new SerializedString("errors");
+    private static final SerializedString USERS = new SerializedString("users");
+    private static final SerializedString NEXT_CURSOR = new SerializedString("nextCursor");
+    private static final SerializedString TOKEN = new SerializedString("token");
+    private static final SerializedString EXPIRES_AT = new SerializedString("expiresAt");
+
+    @FunctionalInterface
+    public interface Writer<T> {
+        void write(JsonGenerator generator, T value) throws IOException;
+    }
+
+    // writes the fields of the root object
+    @FunctionalInterface
+    public interface Fields {
+        void write(JsonGenerator generator) throws IOException;
+    }
+
+    public static final Writer<UserModels.User> USER = JsonCodecs::writeUser;
+    public static final Writer<List<UserModels.User>> USER_LIST = JsonCodecs::writeUsers;
+    public static final Writer<UserModels.Page> PAGE = (generator, page) -> {
+        generator.writeStartObject();
+        generator.writeFieldName(USERS);
+        writeUsers(generator, page.users());
+        if (page.nextCursor() != null) {
+            generator.writeFieldName(NEXT_CURSOR);
+            generator.writeNumber(page.nextCursor());
+        }
+        generator.writeEndObject();
+    };
+    public static final Writer<UserModels.Session> SESSION = (generator, session) -> {
+        generator.writeStartObject();
+        if (session.token() != null) {
+            generator.writeFieldName(TOKEN);
+            generator.writeString(session.token());
+        }
+        generator.writeFieldName(EXPIRES_AT);
+        generator.writeNumber(session.expiresAt());
+        generator.writeEndObject();
+    };
+    public static final Writer<Errors> ERRORS_WRITER = (generator, errors) -> {
+        generator.writeStartObject();
+        if (errors.errors() != null) {
+            generator.writeFieldName(ERRORS);
+            generator.writeStartArray();
+            for (var error : errors.errors()) {
+                generator.writeString(error);
+            }
+            generator.writeEndArray();
+        }
+        generator.writeEndObject();
+    };
+
+    // {"error": message}, the body of every failed request
+    public static final Writer<String> ERROR_MESSAGE = (generator, message) -> {
+        generator.writeStartObject();
+        generator.writeFieldName(ERROR);
+        generator.writeString(message);
+        generator.writeEndObject();
+    };
+
+    // for the bodies that are rare enough not to need a codec of their own
+    public static <T> Writer<T> reflective() {
+        return JsonMappers.shared::writeValue;
+    }
+
+    public static void respond(Context ctx, int status, Fields fields) {
+        respond(ctx, status, (generator, rootFields) -> {
+            generator.writeStartObject();
+            rootFields.write(generator);
+            generator.writeEndObject();
+        }, fields);
+    }
+
+    // a body that is a single value, written by its codec
+    public static <T> void respond(Context ctx, int status, Writer<T> writer, T value) {
+        var serializeStart = System.nanoTime();
+        ctx.status(status);
+        ctx.contentType(ContentType.APPLICATION_JSON);
+        try (var generator = generator(ctx.outputStream())) {
+            writer.write(generator, value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            RequestTiming.recordSince(RequestTiming.Phase.SERIALIZE, serializeStart);
+        }
+    }
+
+    // the root object as bytes, for bodies rendered once and sent many times
+    public static byte[] bytes(Fields fields) {
+        var serializeStart = System.nanoTime();
+        var out = new ByteArrayOutputStream(8 * 1024);
+        try (var generator = generator(out)) {
+            generator.writeStartObject();
+            fields.write(generator);
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            RequestTiming.recordSince(RequestTiming.Phase.SERIALIZE, serializeStart);
+        }
+        return out.toByteArray();
+    }
+
+    // {"<field>": {"response": ..., "errors": ...}}
+    public static <T> void respond(Context ctx, int status, String field, ResponseModel<T> model, Writer<T> writer) {
+        respond(ctx, status, generator -> writeResponse(generator, field, model, writer));
+    }
+
+    public static <T> void writeResponse(JsonGenerator generator, String field, ResponseModel<T> model, Writer<T> writer) throws IOException {
+        generator.writeFieldName(field);
+        generator.writeStartObject();
+        if (model.response() != null) {
+            generator.writeFieldName(RESPONSE);
+            writer.write(generator, model.response());
+        }
+        if (model.errors() != null) {
+            generator.writeFieldName(ERRORS);
+            ERRORS_WRITER.write(generator, model.errors());
+        }
+        generator.writeEndObject();
+    }
+
+    /*
+     * The generator neither closes nor flushes the stream it writes to: a small body stays in the
+     * server's buffer, so headers can still be set after it and the length is known when it is sent.
+     */
+    public static JsonGenerator generator(OutputStream out) throws IOException {
+        return factory.createGenerator(out)
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+            .disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+    }
+
+    public static JsonParser parser(String body) throws IOException {
+        return factory.createParser(body);
+    }
+
+    public static void writeUser(JsonGenerator generator, UserModels.User user) throws IOException {
+        generator.writeStartObject();
+        if (user.id() != null) {
+            generator.writeFieldName(ID);
+            generator.writeNumber(user.id());
+        }
+        if (user.email() != null) {
+            generator.writeFieldName(EMAIL);
+            generator.writeString(user.email());
+        }
+        if (user.password() != null) {
+            generator.writeFieldName(PASSWORD);
+            generator.writeString(user.password());
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeUsers(JsonGenerator generator, List<UserModels.User> users) throws IOException {
+        generator.writeStartArray();
+        for (var user : users) {
+            writeUser(generator, user);
+        }
+        generator.writeEndArray();
+    }
+
+    // null for an empty or null body, unknown fields are skipped
+    public static UserModels.User readUser(String body) throws IOException {
+        try (var parser = parser(body)) {
+            return readUser(parser, parser.nextToken());
+        }
+    }
+
+    // reads the value starting at token, the parser is left on its last token
+    public static UserModels.User readUser(JsonParser parser, JsonToken token) throws IOException {
+        if (token == null || token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "A user must be a JSON object");
+        }
+        Integer id = null;
+        String email = null;
+        String password = null;
+        for (var field = parser.nextFieldName(); field != null; field = parser.nextFieldName()) {
+            var value = parser.nextToken();
+            switch (field) {
+                case "id" -> id = readInteger(parser, value);
+                case "email" -> email = readString(parser, value);
+                case "password" -> password = readString(parser, value);
+                default -> parser.skipChildren();
+            }
+        }
+        if (parser.currentToken() != JsonToken.END_OBJECT) {
+            throw new JsonParseException(parser, "Unexpected end of the user object");
+        }
+        return new UserModels.User(id, email, password);
+    }
+
+    private static Integer readInteger(JsonParser parser, JsonToken value) throws IOException {
+        return switch (value) {
+            case VALUE_NULL -> null;
+            case VALUE_NUMBER_INT -> parser.getIntValue();
+            default -> throw new JsonParseException(parser, "Field " + parser.currentName() + " must be an integer");
+        };
+    }
+
+    private static String readString(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (!value.isScalarValue()) {
+            throw new JsonParseException(parser, "Field " + parser.currentName() + " must be a string");
+        }
+        return parser.getText();
+    }
+}
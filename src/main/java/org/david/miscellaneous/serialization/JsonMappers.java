@@ -0,0 +1,30 @@
+package org.david.miscellaneous.serialization;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.util.JsonRecyclerPools;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.javalin.json.JavalinJackson;
+
+public class JsonMappers {
+    private static final int RECYCLED_BUFFERS = 256;
+
+    /*
+     * The one mapper of the app. Jackson recycles its buffers per thread by default, which on virtual
+     * threads means fresh buffers for every request, so they come from a bounded shared pool instead.
+     */
+    public static final ObjectMapper shared = configure(new ObjectMapper(JsonFactory.builder()
+        .recyclerPool(JsonRecyclerPools.newBoundedPool(RECYCLED_BUFFERS))
+        .build()));
+
+    public static JavalinJackson javalinJackson() {
+        return new JavalinJackson(shared, false);
+    }
+
+    public static ObjectMapper configure(ObjectMapper mapper) {
+        mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        return mapper;
+    }
+}
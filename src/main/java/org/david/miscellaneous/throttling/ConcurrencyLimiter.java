@@ -0,0 +1,129 @@
+package org.david.miscellaneous.throttling;
+import module java.base;
+import io.javalin.security.RouteRole;
+import org.david.miscellaneous.metrics.MetricsRegistry;
+
+/*
+ * Caps the requests in flight with a limit that follows latency, in the spirit of the gradient
+ * limiters: every route keeps a long running average of its latency next to the latest sample, and
+ * when samples drift above the average the limit shrinks by their ratio. Requests over the limit are
+ * rejected at once instead of queueing on virtual threads until everything times out. Lower
+ * priorities only get a share of the limit, so they are shed first.
+ */
+public class ConcurrencyLimiter {
+    public static final ConcurrencyLimiter DISABLED = new ConcurrencyLimiter(Settings.DISABLED);
+    private static final double SMOOTHING = 0.2;
+    private static final double MIN_GRADIENT = 0.5;
+    private static final int WARMUP_SAMPLES = 10;
+    private static final int LONG_WINDOW = 600;
+
+    public enum Priority implements RouteRole {
+        CRITICAL(1.0), NORMAL(0.9), SHEDDABLE(0.75);
+
+        final double share;
+
+        Priority(double share) {
+            this.share = share;
+        }
+    }
+
+    /*
+     * tolerance is how far latency may rise over a route's average before the limit shrinks, 1.5
+     * accepts samples up to 50% slower.
+     */
+    public record Settings(boolean enabled, int initialLimit, int minLimit, int maxLimit, double tolerance) {
+        public static final Settings DEFAULTS = new Settings(true, 64, 8, 1_000, 1.5);
+        static final Settings DISABLED = new Settings(false, 1, 1, 1, 1);
+    }
+
+    private final Settings settings;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong limitBits;
+    private final ConcurrentHashMap<String, RouteLatency> routes = new ConcurrentHashMap<>();
+    private final LongAdder[] rejected = new LongAdder[Priority.values().length];
+
+    public ConcurrencyLimiter(Settings settings) {
+        this.settings = settings;
+        this.limitBits = new AtomicLong(Double.doubleToLongBits(settings.initialLimit()));
+        for (var priority : Priority.values()) {
+            rejected[priority.ordinal()] = new LongAdder();
+        }
+        if (settings.enabled()) {
+            var registry = MetricsRegistry.instance;
+            registry.gauge("concurrency_limit", "Requests allowed in flight", "", this::limit);
+            registry.gauge("concurrency_in_flight", "Requests in flight", "", inFlight::get);
+            for (var priority : Priority.values()) {
+                registry.counter("concurrency_rejected_total", "Requests shed with a 503",
+                    "priority=\"" + priority.name().toLowerCase(Locale.ROOT) + "\"", rejected[priority.ordinal()]::sum);
+            }
+        }
+    }
+
+    public boolean tryAcquire(Priority priority) {
+        if (!settings.enabled()) {
+            return true;
+        }
+        var allowed = Math.max(1, (int) (limit() * priority.share));
+        while (true) {
+            var current = inFlight.get();
+            if (current >= allowed) {
+                rejected[priority.ordinal()].increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release(String route, long latencyNanos) {
+        if (!settings.enabled()) {
+            return;
+        }
+        var current = inFlight.getAndDecrement();
+        var gradient = routes.computeIfAbsent(route, _ -> new RouteLatency()).sample(latencyNanos, settings.tolerance());
+        while (true) {
+            var bits = limitBits.get();
+            var limit = Double.longBitsToDouble(bits);
+            // a limit the traffic never reaches says nothing about latency, don't let it grow unbounded
+            if (gradient >= 1 && current < limit / 2) {
+                return;
+            }
+            var target = limit * gradient + Math.sqrt(limit);
+            var next = Math.clamp(limit * (1 - SMOOTHING) + target * SMOOTHING, settings.minLimit(), settings.maxLimit());
+            if (next == limit || limitBits.compareAndSet(bits, Double.doubleToLongBits(next))) {
+                return;
+            }
+        }
+    }
+
+    public double limit() {
+        return Double.longBitsToDouble(limitBits.get());
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    public long rejected(Priority priority) {
+        return rejected[priority.ordinal()].sum();
+    }
+
+    private static final class RouteLatency {
+        private double averageNanos;
+        private long samples;
+
+        // ratio of the tolerated average to the sample, clamped to [0.5, 1]
+        synchronized double sample(long latencyNanos, double tolerance) {
+            var sample = Math.max(1, latencyNanos);
+            // a plain mean over the first samples, then a moving average slow enough to remember normal
+            samples++;
+            averageNanos += (sample - averageNanos) / (samples <= WARMUP_SAMPLES ? samples : LONG_WINDOW);
+            // after an incident the average is inflated, let it catch up with the recovered latency
+            if (averageNanos > 2 * sample) {
+                averageNanos *= 0.95;
+            }
+            return Math.clamp(tolerance * averageNanos / sample, MIN_GRADIENT, 1.0);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package org.david.miscellaneous.throttling;
+import module java.base;
+import org.david.miscellaneous.custom_exceptions.CustomExceptions.*;
+import org.david.miscellaneous.metrics.MetricsRegistry;
+
+/*
+ * Keeps password guessing from buying a key derivation per request. Every client IP and every email
+ * gets a token bucket, and consecutive failed logins add a delay that doubles up to a cap. The client
+ * check runs before the body is read and the account check before the user is looked up, so a
+ * throttled request costs a map lookup and a CAS.
+ */
+public class LoginThrottle {
+    public static final LoginThrottle DISABLED = new LoginThrottle(Settings.DISABLED, System::nanoTime);
+    private static final String THROTTLED_MESSAGE = "Too many login attempts, try again later";
+    // one response per Retry-After second, a credential stuffing run is answered from these
+    private static final TooManyRequestsException[] THROTTLED_RESPONSES = new TooManyRequestsException[301];
+
+    private final Settings settings;
+    private final Limiter clients;
+    private final Limiter accounts;
+
+    /*
+     * Rates are logins per minute, bursts are how many of them may arrive at once. Failures past the
+     * free ones block the key for failureDelay, doubled per further failure up to maxFailureDelay; a
+     * streak is forgotten after idleTimeout without failures. Clients get more free failures since a
+     * NAT can put many users behind one address. Each map keeps at most maxEntries keys, past that new
+     * keys share a few overflow buckets.
+     */
+    public record Settings(boolean enabled, double clientRatePerMinute, int clientBurst, int clientFreeFailures,
+                           double accountRatePerMinute, int accountBurst, int accountFreeFailures,
+                           Duration failureDelay, Duration maxFailureDelay, Duration idleTimeout, int maxEntries) {
+        public static final Settings DEFAULTS = new Settings(
+            true, 600, 60, 20, 20, 5, 3, Duration.ofSeconds(1), Duration.ofMinutes(1), Duration.ofMinutes(15), 100_000);
+        static final Settings DISABLED = new Settings(
+            false, 1, 1, 0, 1, 1, 0, Duration.ZERO, Duration.ZERO, Duration.ZERO, 1);
+    }
+
+    public LoginThrottle(Settings settings) {
+        this(settings, System::nanoTime);
+    }
+
+    public LoginThrottle(Settings settings, LongSupplier nanoClock) {
+        this.settings = settings;
+        this.clients = new Limiter("client", settings.clientRatePerMinute(), settings.clientBurst(),
+            settings.clientFreeFailures(), false, settings, nanoClock);
+        this.accounts = new Limiter("account", settings.accountRatePerMinute(), settings.accountBurst(),
+            settings.accountFreeFailures(), true, settings, nanoClock);
+        if (settings.enabled()) {
+            var registry = MetricsRegistry.instance;
+            for (var limiter : List.of(clients, accounts)) {
+                var labels = "scope=\"" + limiter.scope + "\"";
+                registry.counter("login_throttled_total", "Logins rejected with a 429", labels, limiter.throttled::sum);
+                registry.gauge("login_throttle_entries", "Keys tracked by the login throttle", labels, limiter.entries::size);
+            }
+        }
+    }
+
+    public void checkClient(String ip) {
+        if (settings.enabled()) {
+            clients.acquire(ip);
+        }
+    }
+
+    public void checkAccount(String email) {
+        if (settings.enabled()) {
+            accounts.acquire(normalize(email));
+        }
+    }
+
+    /*
+     * A failure extends both streaks, a success only clears the account's: one valid account must not
+     * let a client wipe the failures it piled up guessing others.
+     */
+    public void recordResult(String ip, String email, boolean succeeded) {
+        if (!settings.enabled()) {
+            return;
+        }
+        clients.record(ip, succeeded);
+        if (email != null) {
+            accounts.record(normalize(email), succeeded);
+        }
+    }
+
+    public int trackedClients() {
+        return clients.entries.size();
+    }
+
+    public int trackedAccounts() {
+        return accounts.entries.size();
+    }
+
+    private static String normalize(String email) {
+        return email == null ? "" : email.strip().toLowerCase(Locale.ROOT);
+    }
+
+    private static final class Limiter {
+        private static final int OVERFLOW_BUCKETS = 64;
+        private static final long FULL_SWEEP_INTERVAL_NANOS = Duration.ofSeconds(1).toNanos();
+
+        private final String scope;
+        private final long intervalNanos;
+        private final long toleranceNanos;
+        private final int freeFailures;
+        private final boolean successClearsFailures;
+        private final Settings settings;
+        private final LongSupplier nanoClock;
+        private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+        private final Entry[] overflow = new Entry[OVERFLOW_BUCKETS];
+        private final AtomicLong nextSweepAt;
+        private final AtomicLong nextFullSweepAt;
+        private final AtomicBoolean sweeping = new AtomicBoolean();
+        private final LongAdder throttled = new LongAdder();
+
+        Limiter(String scope, double ratePerMinute, int burst, int freeFailures, boolean successClearsFailures,
+                Settings settings, LongSupplier nanoClock) {
+            this.scope = scope;
+            this.intervalNanos = (long) (Duration.ofMinutes(1).toNanos() / ratePerMinute);
+            this.toleranceNanos = intervalNanos * (burst - 1L);
+            this.freeFailures = freeFailures;
+            this.successClearsFailures = successClearsFailures;
+            this.settings = settings;
+            this.nanoClock = nanoClock;
+            var now = nanoClock.getAsLong();
+            for (var i = 0; i < OVERFLOW_BUCKETS; i++) {
+                overflow[i] = new Entry(now);
+            }
+            this.nextSweepAt = new AtomicLong(now + settings.idleTimeout().toNanos());
+            this.nextFullSweepAt = new AtomicLong(now);
+        }
+
+        void acquire(String key) {
+            var now = nanoClock.getAsLong();
+            sweepIfDue(now);
+            var entry = entryFor(key, now);
+            entry.lastSeen = now;
+            var blockedFor = entry.blockedUntil.get() - now;
+            if (blockedFor > 0) {
+                throw throttled(blockedFor);
+            }
+            var waitFor = entry.take(now, intervalNanos, toleranceNanos);
+            if (waitFor > 0) {
+                throw throttled(waitFor);
+            }
+        }
+
+        void record(String key, boolean succeeded) {
+            if (succeeded && !successClearsFailures) {
+                return;
+            }
+            var now = nanoClock.getAsLong();
+            var entry = entryFor(key, now);
+            if (succeeded) {
+                entry.failures.set(0);
+                return;
+            }
+            var lastFailure = entry.lastFailure;
+            entry.lastFailure = now;
+            var failures = now - lastFailure > settings.idleTimeout().toNanos()
+                ? resetStreak(entry)
+                : entry.failures.incrementAndGet();
+            var penalties = failures - freeFailures;
+            if (penalties > 0) {
+                var delay = Math.min(
+                    settings.maxFailureDelay().toNanos(),
+                    settings.failureDelay().toNanos() << Math.min(penalties - 1, 30));
+                entry.blockedUntil.accumulateAndGet(now + delay, Math::max);
+            }
+        }
+
+        private static int resetStreak(Entry entry) {
+            entry.failures.set(1);
+            return 1;
+        }
+
+        private Entry entryFor(String key, long now) {
+            var entry = entries.get(key);
+            if (entry != null) {
+                return entry;
+            }
+            if (entries.size() >= settings.maxEntries()) {
+                // sweeping is a scan of the whole map, under a flood of new keys do it at most once a second
+                var due = nextFullSweepAt.get();
+                if (now - due >= 0 && nextFullSweepAt.compareAndSet(due, now + FULL_SWEEP_INTERVAL_NANOS)) {
+                    sweep(now);
+                }
+                if (entries.size() >= settings.maxEntries()) {
+                    // a flood of new keys shares buckets instead of growing the map or skipping the limit
+                    return overflow[spread(key)];
+                }
+            }
+            return entries.computeIfAbsent(key, _ -> new Entry(now));
+        }
+
+        private void sweepIfDue(long now) {
+            var due = nextSweepAt.get();
+            if (now - due >= 0 && nextSweepAt.compareAndSet(due, now + settings.idleTimeout().toNanos())) {
+                sweep(now);
+            }
+        }
+
+        // an idle entry has a full bucket and no pending block, dropping it loses nothing but old failures
+        private void sweep(long now) {
+            if (!sweeping.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                var idleNanos = settings.idleTimeout().toNanos();
+                entries.values().removeIf(entry -> now - entry.lastSeen > idleNanos
+                    && entry.blockedUntil.get() - now <= 0
+                    && entry.theoreticalArrival.get() - now <= 0);
+            } finally {
+                sweeping.set(false);
+            }
+        }
+
+        private TooManyRequestsException throttled(long waitNanos) {
+            throttled.increment();
+            var seconds = Math.max(1, (waitNanos + 999_999_999L) / 1_000_000_000L);
+            if (seconds >= THROTTLED_RESPONSES.length) {
+                return new TooManyRequestsException(THROTTLED_MESSAGE, seconds);
+            }
+            var response = THROTTLED_RESPONSES[(int) seconds];
+            if (response == null) {
+                response = new TooManyRequestsException(THROTTLED_MESSAGE, seconds);
+                THROTTLED_RESPONSES[(int) seconds] = response;
+            }
+            return response;
+        }
+
+        private static int spread(String key) {
+            var hash = key.hashCode();
+            return (hash ^ (hash >>> 16)) & (OVERFLOW_BUCKETS - 1);
+        }
+    }
+
+    /*
+     * Generic cell rate algorithm: the bucket is the single time at which it would be full again.
+     * A request is admitted when that time is within the burst tolerance and pushes it one interval on.
+     */
+    private static final class Entry {
+        final AtomicLong theoreticalArrival;
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicLong blockedUntil;
+        volatile long lastSeen;
+        volatile long lastFailure;
+
+        Entry(long now) {
+            this.theoreticalArrival = new AtomicLong(now);
+            this.blockedUntil = new AtomicLong(now);
+            this.lastSeen = now;
+            this.lastFailure = now;
+        }
+
+        // 0 when a token was taken, otherwise the nanos until the next one
+        long take(long now, long intervalNanos, long toleranceNanos) {
+            while (true) {
+                var arrival = theoreticalArrival.get();
+                var base = arrival - now > 0 ? arrival : now;
+                var waitFor = base - now - toleranceNanos;
+                if (waitFor > 0) {
+                    return waitFor;
+                }
+                if (theoreticalArrival.compareAndSet(arrival, base + intervalNanos)) {
+                    return 0;
+                }
+            }
+        }
+    }
+}
@@ -1,26 +1,135 @@
 package org.david.miscellaneous.validators;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonToken;
 import io.javalin.http.Context;
+import io.javalin.validation.BodyValidator;
 import org.david.domain.models.UserModels;
 import org.david.miscellaneous.custom_exceptions.CustomExceptions.*;
+import org.david.miscellaneous.metrics.RequestTiming;
+import org.david.miscellaneous.serialization.JsonCodecs;
+import org.david.miscellaneous.serialization.JsonMappers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 public class UserValidators {
+    public static final String USER_DTO = "userDto";
+    public static final int MAX_BULK_USERS = 50_000;
 
-    public static void userDtoValidator(Context ctx)  {
-        checkJsonIntegrity(ctx);
-        ctx.bodyValidator(UserModels.User.class)
-            .check(user -> user.email() != null && !user.email().isBlank(),"Email can't be null or blank")
-            .check(user -> user.password() != null && !user.password().isBlank(), "Password can't be null or blank")
+    public static UserModels.User userDtoValidator(Context ctx)  {
+        var parseStart = System.nanoTime();
+        try {
+            var validatedUser = validateUserDto(ctx.body());
+            ctx.attribute(USER_DTO, validatedUser);
+            return validatedUser;
+        } finally {
+            RequestTiming.recordSince(RequestTiming.Phase.PARSE, parseStart);
+        }
+    }
+
+    public static UserModels.User validateUserDto(String body){
+        var user = parseUser(body);
+        return new BodyValidator<>(body, UserModels.User.class, () -> user)
+            .check(dto -> dto.email() != null && !dto.email().isBlank(),"Email can't be null or blank")
+            .check(dto -> dto.password() != null && !dto.password().isBlank(), "Password can't be null or blank")
             .get();
     }
 
-    private static void checkJsonIntegrity(Context ctx){
+    public static UserModels.User boundUser(Context ctx){
+        UserModels.User user = ctx.attribute(USER_DTO);
+        return user != null ? user : userDtoValidator(ctx);
+    }
+
+    public static boolean isValidUser(UserModels.User user){
+        return user != null
+            && user.email() != null && !user.email().isBlank()
+            && user.password() != null && !user.password().isBlank();
+    }
+
+    /*
+     * Reads either a JSON array or NDJSON straight from the request stream, so large imports are not
+     * bound by the buffered body size. Malformed NDJSON lines come back as null entries to be reported
+     * per row; a malformed array fails the whole request since there is no way to resync inside it.
+     */
+    public static List<UserModels.User> bulkUserDtoParser(Context ctx){
+        var parseStart = System.nanoTime();
         try {
-            var json = new ObjectMapper();
-            json.readValue(ctx.body(), Object.class);
+            return readBulkUsers(ctx);
+        } finally {
+            RequestTiming.recordSince(RequestTiming.Phase.PARSE, parseStart);
+        }
+    }
+
+    private static List<UserModels.User> readBulkUsers(Context ctx){
+        var users = new ArrayList<UserModels.User>();
+        try (var input = new BufferedInputStream(ctx.bodyInputStream())) {
+            if(firstNonWhitespace(input) == '['){
+                try (var parser = JsonMappers.shared.getFactory().createParser(input)) {
+                    parser.nextToken();
+                    for (var token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+                        if(token == null){
+                            throw new InvalidBodyException("The array of users is not closed");
+                        }
+                        addBulkUser(users, JsonCodecs.readUser(parser, token));
+                    }
+                }
+                return users;
+            }
+            var reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+            for (var line = reader.readLine(); line != null; line = reader.readLine()) {
+                if(line.isBlank()){
+                    continue;
+                }
+                addBulkUser(users, parseBulkLine(line));
+            }
+            return users;
         } catch (JsonProcessingException e) {
+            throw new InvalidBodyException(e.getOriginalMessage());
+        } catch (IOException e) {
+            throw new InvalidBodyException("The body could not be read");
+        }
+    }
+
+    private static UserModels.User parseBulkLine(String line){
+        try {
+            return JsonCodecs.readUser(line);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void addBulkUser(List<UserModels.User> users, UserModels.User user){
+        if(users.size() == MAX_BULK_USERS){
+            throw new InvalidBodyException("A bulk request can't contain more than " + MAX_BULK_USERS + " users");
+        }
+        users.add(user);
+    }
+
+    private static int firstNonWhitespace(BufferedInputStream input) throws IOException {
+        while (true) {
+            input.mark(1);
+            var next = input.read();
+            if(next == -1 || !Character.isWhitespace(next)){
+                input.reset();
+                return next;
+            }
+        }
+    }
+
+    private static UserModels.User parseUser(String body){
+        try {
+            var user = JsonCodecs.readUser(body);
+            if(user == null){
+                throw new InvalidBodyException("The body can't be empty");
+            }
+            return user;
+        } catch (IOException e) {
             throw new InvalidBodyException(e.getMessage());
         }
     }
@@ -0,0 +1,183 @@
+package adapters;
+import module java.base;
+import org.david.boundaries.adapters.DB;
+import org.david.boundaries.adapters.DbConfig;
+import org.david.miscellaneous.custom_exceptions.CustomExceptions.*;
+import org.jooq.SQLDialect;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class DBTest {
+
+    @Test
+    public void testExecute_permitFree_runsQuery() throws Exception {
+        var db = DB.using(dataSource(), SQLDialect.H2, 1, Duration.ofMillis(50), 10);
+
+        assertEquals(Integer.valueOf(42), db.execute(dsl -> 42));
+        assertEquals(0, db.rejectedCount());
+    }
+
+    @Test
+    public void testExecute_permitsTakenPastWaitBudget_failsWith503() throws Exception {
+        var db = DB.using(dataSource(), SQLDialect.H2, 1, Duration.ofMillis(50), 10);
+        var holding = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var holder = Thread.ofVirtual().start(() -> {
+            try {
+                db.execute(dsl -> {
+                    holding.countDown();
+                    await(release);
+                    return null;
+                });
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        holding.await();
+
+        var start = System.nanoTime();
+        var exception = assertThrows(ServiceUnavailableException.class, () -> db.execute(dsl -> 1));
+        assertTrue(System.nanoTime() - start >= Duration.ofMillis(50).toNanos());
+        assertEquals(503, exception.statusCode);
+        assertTrue(exception.retryAfterSeconds > 0);
+
+        release.countDown();
+        holder.join();
+        assertEquals(Integer.valueOf(1), db.execute(dsl -> 1));
+        assertEquals(1, db.rejectedCount());
+    }
+
+    @Test
+    public void testExecute_waitQueueFull_failsWithoutWaiting() throws Exception {
+        var db = DB.using(dataSource(), SQLDialect.H2, 1, Duration.ofSeconds(30), 0);
+        var holding = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var holder = Thread.ofVirtual().start(() -> {
+            try {
+                db.execute(dsl -> {
+                    holding.countDown();
+                    await(release);
+                    return null;
+                });
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        holding.await();
+
+        var start = System.nanoTime();
+        assertThrows(ServiceUnavailableException.class, () -> db.execute(dsl -> 1));
+        assertTrue(System.nanoTime() - start < Duration.ofSeconds(5).toNanos());
+
+        release.countDown();
+        holder.join();
+    }
+
+    @Test
+    public void testExecute_poolTimesOut_failsWith503AndReleasesPermit() throws Exception {
+        var dataSource = mock(DataSource.class);
+        when(dataSource.getConnection())
+            .thenThrow(new SQLException("acquisition timeout"))
+            .thenReturn(mock(Connection.class));
+        var db = DB.using(dataSource, SQLDialect.H2, 1, Duration.ofMillis(50), 10);
+
+        assertThrows(ServiceUnavailableException.class, () -> db.execute(dsl -> 1));
+        assertEquals(Integer.valueOf(1), db.execute(dsl -> 1));
+    }
+
+    @Test
+    public void testExecute_queryFails_throwsGenericSQLException() throws Exception {
+        var db = DB.using(dataSource(), SQLDialect.H2, 1, Duration.ofMillis(50), 10);
+
+        assertThrows(GenericSQLException.class, () -> db.execute(dsl -> {
+            throw new IllegalStateException("boom");
+        }));
+        assertEquals(Integer.valueOf(1), db.execute(dsl -> 1));
+    }
+
+    @Test
+    public void testCreate_opensThePoolOnFirstUseAndAnswersFailuresWith503() {
+        var config = DbConfig.from(new Properties(), Map.of(
+            "DB_URL", "jdbc:postgresql://127.0.0.1:1/unreachable",
+            "DB_POOL_MIN_SIZE", "0",
+            "DB_POOL_PREWARM", "false",
+            "DB_POOL_ACQUISITION_TIMEOUT_MS", "200"));
+        var db = DB.create(config);
+
+        assertFalse(db.isOpen());
+        var exception = assertThrows(ServiceUnavailableException.class, () -> db.execute(dsl -> 1));
+        assertEquals(503, exception.statusCode);
+        assertTrue(db.isOpen());
+        assertEquals(1, db.rejectedCount());
+    }
+
+    @Test
+    public void testDbConfig_environmentOverridesFile() {
+        var file = new Properties();
+        file.setProperty("db.url", "jdbc:postgresql://db:5432/users");
+        file.setProperty("db.pool.max-size", "20");
+        file.setProperty("db.gate.wait-ms", "250");
+
+        var config = DbConfig.from(file, Map.of("DB_POOL_MAX_SIZE", "40", "DB_GATE_MAX_WAITERS", "5"));
+
+        assertEquals("jdbc:postgresql://db:5432/users", config.url());
+        assertEquals(40, config.maxSize());
+        assertEquals(40, config.minSize());
+        assertEquals(40, config.gatePermits());
+        assertEquals(Duration.ofMillis(250), config.gateWait());
+        assertEquals(5, config.gateMaxWaiters());
+        assertTrue(config.prewarm());
+    }
+
+    @Test
+    public void testDbConfig_replicaUrls_areSplitAndShareThePrimarySettings() {
+        var config = DbConfig.from(new Properties(), Map.of(
+            "DB_POOL_MAX_SIZE", "4",
+            "DB_REPLICA_URLS", "jdbc:postgresql://replica-1:5432/users, jdbc:postgresql://replica-2:5432/users,"));
+
+        assertEquals(List.of("jdbc:postgresql://replica-1:5432/users", "jdbc:postgresql://replica-2:5432/users"), config.replicaUrls());
+        assertEquals(DbConfig.LEAST_LOADED, config.replicaSelection());
+        var replica = config.withUrl(config.replicaUrls().getFirst());
+        assertEquals(4, replica.maxSize());
+        assertTrue(replica.replicaUrls().isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> DbConfig.from(new Properties(),
+            Map.of("DB_REPLICA_SELECTION", "random")));
+    }
+
+    @Test
+    public void testDbConfig_minSizeAboveMaxSize_isRejected() {
+        assertThrows(IllegalArgumentException.class, () -> DbConfig.from(new Properties(),
+            Map.of("DB_POOL_MAX_SIZE", "5", "DB_POOL_MIN_SIZE", "6")));
+    }
+
+    @Test
+    public void testExecuteJdbc_uniqueViolation_isLeftToTheCaller() throws Exception {
+        var db = DB.using(dataSource(), SQLDialect.H2, 1, Duration.ofMillis(50), 10);
+
+        var exception = assertThrows(SQLException.class, () -> db.executeJdbc(DB.queryTimer("test"), _ -> {
+            throw new SQLException("duplicate key", "23505");
+        }));
+        assertTrue(DB.isUniqueViolation(exception));
+        assertFalse(DB.isUniqueViolation(new SQLException("syntax error", "42601")));
+    }
+
+    private static DataSource dataSource() throws SQLException {
+        var dataSource = mock(DataSource.class);
+        when(dataSource.getConnection()).thenAnswer(_ -> mock(Connection.class));
+        return dataSource;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package adapters;
+import module java.base;
+import org.david.boundaries.adapters.DB;
+import org.david.boundaries.adapters.ReplicaRouter;
+import org.david.boundaries.adapters.ReplicaRouter.Selection;
+import org.david.domain.models.UserModels;
+import org.david.domain.repository.UserRepository;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.jooq.SQLDialect;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReplicaRouterTest {
+    private static final long MILLIS = 1_000_000;
+    private static final AtomicInteger databases = new AtomicInteger();
+
+    private final List<JdbcConnectionPool> pools = new ArrayList<>();
+
+    @AfterEach
+    public void tearDown() {
+        pools.forEach(JdbcConnectionPool::dispose);
+    }
+
+    // a separate in-memory database per call, nothing replicates between them
+    private DB database() throws SQLException {
+        var pool = JdbcConnectionPool.create("jdbc:h2:mem:replica-test-" + databases.incrementAndGet() + ";DB_CLOSE_DELAY=-1", "sa", "");
+        pools.add(pool);
+        try (var connection = pool.getConnection(); var statement = connection.createStatement()) {
+            statement.execute("create table users (id int auto_increment primary key, email varchar_ignorecase(255) not null unique, password varchar(255) not null, version bigint not null default 0)");
+        }
+        return DB.using(pool, SQLDialect.H2);
+    }
+
+    @Test
+    public void testRepository_readsFromTheReplicaExceptRightAfterTheUsersOwnWrite() throws Exception {
+        var primary = database();
+        var replica = database();
+        var repository = new UserRepository(primary);
+        repository.createUser(new UserModels.User(null, "own@example.com", "primary-hash"));
+        new UserRepository(replica).createUser(new UserModels.User(null, "own@example.com", "replica-hash"));
+        new UserRepository(replica).createUser(new UserModels.User(null, "other@example.com", "replica-hash"));
+        repository.enableReadReplicas(List.of(replica), Selection.ROUND_ROBIN, Duration.ofMinutes(1));
+
+        repository.updatePassword("own@example.com", "updated-hash", null);
+
+        assertEquals("updated-hash", repository.getSingleUser("own@example.com").orElseThrow().password);
+        assertEquals("replica-hash", repository.getSingleUser("other@example.com").orElseThrow().password);
+        // listing right after a write must not miss it either
+        assertEquals(List.of("own@example.com"), repository.getUsers().stream().map(user -> user.email).toList());
+    }
+
+    @Test
+    public void testRepository_noWritesInTheWindow_listsFromTheReplica() throws Exception {
+        var primary = database();
+        var replica = database();
+        new UserRepository(replica).createUser(new UserModels.User(null, "replicated@example.com", "hash"));
+        var repository = new UserRepository(primary);
+        repository.enableReadReplicas(List.of(replica), Selection.LEAST_LOADED, Duration.ofMinutes(1));
+
+        assertEquals(List.of("replicated@example.com"), repository.getUsers().stream().map(user -> user.email).toList());
+        assertTrue(repository.getSingleUser("replicated@example.com").isPresent());
+    }
+
+    @Test
+    public void testForRead_stickyWindowExpires() throws Exception {
+        var now = new AtomicLong();
+        var primary = database();
+        var replica = database();
+        var router = new ReplicaRouter(primary, List.of(replica), Selection.ROUND_ROBIN, Duration.ofSeconds(2), now::get);
+
+        router.wrote("a@example.com");
+
+        assertSame(primary, router.forRead("a@example.com"));
+        assertSame(replica, router.forRead("b@example.com"));
+        assertSame(primary, router.forRead());
+        now.addAndGet(2_000 * MILLIS);
+        assertSame(replica, router.forRead("a@example.com"));
+        assertSame(replica, router.forRead());
+    }
+
+    @Test
+    public void testForRead_roundRobinAlternatesAndLeastLoadedAvoidsBusyReplicas() throws Exception {
+        var primary = database();
+        var first = database();
+        var second = database();
+        var roundRobin = new ReplicaRouter(primary, List.of(first, second), Selection.ROUND_ROBIN, Duration.ZERO, System::nanoTime);
+        assertNotSame(roundRobin.forRead(), roundRobin.forRead());
+
+        var leastLoaded = new ReplicaRouter(primary, List.of(first, second), Selection.LEAST_LOADED, Duration.ZERO, System::nanoTime);
+        var holding = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var holder = Thread.ofVirtual().start(() -> {
+            try {
+                first.execute(_ -> {
+                    holding.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return null;
+                });
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        holding.await();
+        try {
+            for (var i = 0; i < 4; i++) {
+                assertSame(second, leastLoaded.forRead());
+            }
+        } finally {
+            release.countDown();
+            holder.join();
+        }
+    }
+
+    @Test
+    public void testForRead_withoutReplicas_isAlwaysThePrimary() throws Exception {
+        var primary = database();
+        var router = new ReplicaRouter(primary, List.of(), Selection.LEAST_LOADED, Duration.ofSeconds(2), System::nanoTime);
+
+        assertSame(primary, router.forRead("a@example.com"));
+        assertSame(primary, router.forRead());
+    }
+}
@@ -0,0 +1,71 @@
+package cache;
+import module java.base;
+import org.david.miscellaneous.cache.ResponseSnapshot;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResponseSnapshotTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicLong now = new AtomicLong();
+    private final AtomicReference<String> body = new AtomicReference<>("{\"users\":[]}");
+    private final ResponseSnapshot snapshot = new ResponseSnapshot(
+        version::get, Duration.ofSeconds(5), () -> body.get().getBytes(StandardCharsets.UTF_8), now::get);
+
+    @Test
+    public void testGet_sameVersion_rendersOnce() {
+        var first = snapshot.get();
+        var second = snapshot.get();
+
+        assertSame(first, second);
+        assertEquals(1, snapshot.renders());
+    }
+
+    @Test
+    public void testGet_newVersion_rendersAgainWithNewEtag() {
+        var first = snapshot.get();
+        body.set("{\"users\":[{\"id\":1}]}");
+        version.incrementAndGet();
+
+        var second = snapshot.get();
+
+        assertEquals(2, snapshot.renders());
+        assertEquals(1, second.version());
+        assertNotEquals(first.etag(), second.etag());
+    }
+
+    @Test
+    public void testGet_expiredSnapshotWithSameContent_keepsEtag() {
+        var first = snapshot.get();
+        now.addAndGet(5 * SECOND);
+
+        var second = snapshot.get();
+
+        assertNotSame(first, second);
+        assertEquals(first.etag(), second.etag());
+        assertTrue(second.etag().startsWith("W/\""));
+    }
+
+    @Test
+    public void testGet_gzipHoldsTheSameBody() throws IOException {
+        var rendered = snapshot.get();
+
+        try (var gzip = new GZIPInputStream(new ByteArrayInputStream(rendered.gzip()))) {
+            assertArrayEquals(rendered.identity(), gzip.readAllBytes());
+        }
+    }
+
+    @Test
+    public void testMatches_weakComparisonOverAList() {
+        var etag = snapshot.get().etag();
+        var opaque = etag.substring(2);
+
+        assertTrue(ResponseSnapshot.matches(etag, etag));
+        assertTrue(ResponseSnapshot.matches("\"other\", " + opaque, etag));
+        assertTrue(ResponseSnapshot.matches("*", etag));
+        assertFalse(ResponseSnapshot.matches("W/\"other\"", etag));
+        assertFalse(ResponseSnapshot.matches(null, etag));
+    }
+}
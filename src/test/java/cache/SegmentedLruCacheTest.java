@@ -0,0 +1,58 @@
+package cache;
+import module java.base;
+import org.david.miscellaneous.cache.SegmentedLruCache;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SegmentedLruCacheTest {
+    private final AtomicLong clock = new AtomicLong();
+
+    @Test
+    public void testGet_afterPut_returnsValueAndCountsHit() {
+        var cache = new SegmentedLruCache<String, String>(10, Duration.ofMinutes(1), clock::get);
+        cache.put("a@example.com", "a");
+
+        assertEquals("a", cache.get("a@example.com"));
+        assertNull(cache.get("b@example.com"));
+
+        var stats = cache.stats();
+        assertEquals(1, stats.hits());
+        assertEquals(1, stats.misses());
+    }
+
+    @Test
+    public void testGet_expiredEntry_returnsNull() {
+        var cache = new SegmentedLruCache<String, String>(10, Duration.ofSeconds(5), clock::get);
+        cache.put("a@example.com", "a");
+        clock.addAndGet(Duration.ofSeconds(6).toNanos());
+
+        assertNull(cache.get("a@example.com"));
+    }
+
+    @Test
+    public void testPut_overCapacity_evictsColdEntriesFirst() {
+        var cache = new SegmentedLruCache<String, String>(10, Duration.ofMinutes(1), clock::get);
+        cache.put("hot", "hot");
+        cache.get("hot");
+        for (var i = 0; i < 50; i++) {
+            cache.put("cold-" + i, "cold");
+        }
+
+        assertEquals("hot", cache.get("hot"));
+        assertTrue(cache.stats().size() <= 10);
+        assertTrue(cache.stats().evictions() > 0);
+    }
+
+    @Test
+    public void testInvalidateIf_removesMatchingValues() {
+        var cache = new SegmentedLruCache<String, String>(10, Duration.ofMinutes(1), clock::get);
+        cache.put("a", "keep");
+        cache.put("b", "drop");
+
+        cache.invalidateIf("drop"::equals);
+
+        assertEquals("keep", cache.get("a"));
+        assertNull(cache.get("b"));
+    }
+}
@@ -0,0 +1,66 @@
+package criptography;
+import module java.base;
+import com.google.crypto.tink.subtle.Hkdf;
+import org.david.miscellaneous.criptography.CryptManager;
+import org.david.miscellaneous.criptography.HashProfile;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CryptManagerTest {
+
+    @Test
+    public void testHashPassword_usesVersionedFormat() {
+        var hash = CryptManager.hashPassword("password123", HashProfile.PBKDF2_SHA256_LOW);
+
+        assertTrue(hash.startsWith("$pbkdf2-sha256$i=100000$"));
+        assertEquals(5, hash.split("\\$").length);
+        assertTrue(CryptManager.verifyPassword("password123", hash));
+        assertFalse(CryptManager.verifyPassword("wrongPass", hash));
+    }
+
+    @Test
+    public void testVerifyPassword_legacyFormat_stillVerifies() throws Exception {
+        var salt = new byte[32];
+        new SecureRandom().nextBytes(salt);
+        var key = Hkdf.computeHkdf("HmacSha256", "password123".getBytes(StandardCharsets.UTF_8), salt, new byte[0], 64);
+        var legacy = Base64.getEncoder().encodeToString(key) + "::" + Base64.getEncoder().encodeToString(salt);
+
+        assertTrue(CryptManager.verifyPassword("password123", legacy));
+        assertFalse(CryptManager.verifyPassword("wrongPass", legacy));
+        assertFalse(CryptManager.needsRehash(legacy));
+        var profile = CryptManager.defaultProfile();
+        CryptManager.configure(HashProfile.PBKDF2_SHA256_LOW);
+        try {
+            assertTrue(CryptManager.needsRehash(legacy));
+        } finally {
+            CryptManager.configure(profile);
+        }
+    }
+
+    @Test
+    public void testNeedsRehash_outdatedCost_isDetected() {
+        var profile = CryptManager.defaultProfile();
+        CryptManager.configure(HashProfile.PBKDF2_SHA256_LOW);
+        try {
+            var outdated = CryptManager.hashPassword("password123", HashProfile.parse("pbkdf2-sha256:1000"));
+            var current = CryptManager.hashPassword("password123");
+
+            assertTrue(CryptManager.needsRehash(outdated));
+            assertFalse(CryptManager.needsRehash(current));
+        } finally {
+            CryptManager.configure(profile);
+        }
+    }
+
+    @Test
+    public void testDefaultProfile_isTheLegacyDerivation() {
+        assertEquals(HashProfile.LEGACY_HKDF, CryptManager.defaultProfile());
+    }
+
+    @Test
+    public void testProfileParse_roundTrips() {
+        assertEquals(HashProfile.PBKDF2_SHA512, HashProfile.parse(HashProfile.PBKDF2_SHA512.toString()));
+        assertThrows(IllegalArgumentException.class, () -> HashProfile.parse("md5:1"));
+    }
+}
@@ -0,0 +1,86 @@
+package criptography;
+import module java.base;
+import org.david.miscellaneous.criptography.CryptManager;
+import org.david.miscellaneous.criptography.HashExecutor;
+import org.david.miscellaneous.custom_exceptions.CustomExceptions.*;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HashExecutorTest {
+
+    @Test
+    public void testHashAndVerify_roundTrip() {
+        var executor = new HashExecutor(2, 4);
+        var hash = executor.hash("password123");
+
+        assertTrue(executor.verify("password123", hash));
+        assertFalse(executor.verify("wrongPass", hash));
+        assertEquals(3, executor.stats().completed());
+    }
+
+    @Test
+    public void testExecute_queueFull_rejectsWith503AndRetryAfter() throws Exception {
+        var executor = new HashExecutor(1, 1);
+        var release = new CountDownLatch(1);
+        var started = new CountDownLatch(1);
+        var running = Thread.ofVirtual().start(() -> executor.execute(() -> {
+            started.countDown();
+            release.await();
+            return null;
+        }));
+        started.await();
+        var queued = Thread.ofVirtual().start(() -> executor.execute(() -> null));
+        while (executor.stats().queueDepth() == 0) {
+            Thread.onSpinWait();
+        }
+
+        var ex = assertThrows(ServiceUnavailableException.class, () -> executor.hash("password123"));
+        assertEquals(503, ex.statusCode);
+        assertTrue(ex.retryAfterSeconds > 0);
+        assertEquals(1, executor.stats().rejected());
+
+        release.countDown();
+        running.join();
+        queued.join();
+    }
+
+    @Test
+    public void testHashIfIdle_busyQueue_dropsWithoutRejecting() throws Exception {
+        var executor = new HashExecutor(1, 2);
+        var release = new CountDownLatch(1);
+        var started = new CountDownLatch(1);
+        var running = Thread.ofVirtual().start(() -> executor.execute(() -> {
+            started.countDown();
+            release.await();
+            return null;
+        }));
+        started.await();
+        var queued = Thread.ofVirtual().start(() -> executor.execute(() -> null));
+        while (executor.stats().queueDepth() == 0) {
+            Thread.onSpinWait();
+        }
+
+        assertTrue(executor.hashIfIdle("password123").isEmpty());
+        assertEquals(0, executor.stats().rejected());
+
+        release.countDown();
+        running.join();
+        queued.join();
+        var hash = executor.hashIfIdle("password123").orElseThrow();
+        assertTrue(CryptManager.verifyPassword("password123", hash));
+    }
+
+    @Test
+    public void testHashAll_keepsInputOrder() {
+        var executor = new HashExecutor(4, 16);
+        var passwords = IntStream.range(0, 100).mapToObj(i -> "password" + i).toList();
+
+        var hashes = executor.hashAll(passwords);
+
+        assertEquals(100, hashes.size());
+        for (var i = 0; i < passwords.size(); i++) {
+            assertTrue(CryptManager.verifyPassword(passwords.get(i), hashes.get(i)));
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package criptography;
+import module java.base;
+import org.david.miscellaneous.criptography.TokenManager;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenManagerTest {
+    private final AtomicLong clock = new AtomicLong(1_700_000_000_000L);
+    private final TokenManager tokenManager = new TokenManager(Duration.ofMinutes(15), clock::get);
+
+    @Test
+    public void testVerify_issuedToken_returnsClaims() {
+        var issued = tokenManager.issue(7, "user@example.com");
+
+        var claims = tokenManager.verify(issued.token()).orElseThrow();
+        assertEquals(7, claims.userId());
+        assertEquals("user@example.com", claims.email());
+        assertEquals(issued.expiresAt(), claims.expiresAt());
+    }
+
+    @Test
+    public void testVerify_tamperedPayload_isRejected() {
+        var issued = tokenManager.issue(7, "user@example.com");
+        var forged = tokenManager.issue(8, "admin@example.com").token();
+        var mixed = forged.substring(0, forged.indexOf('.')) + issued.token().substring(issued.token().indexOf('.'));
+
+        assertTrue(tokenManager.verify(mixed).isEmpty());
+        assertTrue(tokenManager.verify("garbage").isEmpty());
+        assertTrue(tokenManager.verify("a.b").isEmpty());
+    }
+
+    @Test
+    public void testVerify_expiredToken_isRejected() {
+        var issued = tokenManager.issue(7, "user@example.com");
+        clock.addAndGet(Duration.ofMinutes(16).toMillis());
+
+        assertTrue(tokenManager.verify(issued.token()).isEmpty());
+    }
+
+    @Test
+    public void testRevoke_rejectsOlderTokensOnly() {
+        var before = tokenManager.issue(7, "user@example.com");
+        var otherUser = tokenManager.issue(8, "other@example.com");
+        clock.incrementAndGet();
+        tokenManager.revoke(7);
+        clock.incrementAndGet();
+        var after = tokenManager.issue(7, "user@example.com");
+
+        assertTrue(tokenManager.verify(before.token()).isEmpty());
+        assertTrue(tokenManager.verify(otherUser.token()).isPresent());
+        assertTrue(tokenManager.verify(after.token()).isPresent());
+    }
+
+    @Test
+    public void testRotateKey_keepsRecentKeysVerifying() {
+        var first = tokenManager.issue(7, "user@example.com");
+        tokenManager.rotateKey();
+        var second = tokenManager.issue(7, "user@example.com");
+
+        assertTrue(tokenManager.verify(first.token()).isPresent());
+        assertTrue(tokenManager.verify(second.token()).isPresent());
+
+        tokenManager.rotateKey();
+        tokenManager.rotateKey();
+        assertTrue(tokenManager.verify(first.token()).isEmpty());
+        assertTrue(tokenManager.verify(second.token()).isPresent());
+    }
+}
@@ -0,0 +1,44 @@
+package custom_exceptions;
+import module java.base;
+import org.david.miscellaneous.custom_exceptions.CustomExceptions.*;
+import org.david.miscellaneous.custom_exceptions.HttpCustomException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HttpCustomExceptionTest {
+
+    @Test
+    public void testNewException_capturesNoStackTrace() {
+        var exception = new InvalidPasswordException("The passwords do not match");
+
+        assertEquals(0, exception.getStackTrace().length);
+        assertEquals("The passwords do not match", exception.getMessage());
+        assertEquals(403, exception.statusCode);
+    }
+
+    @Test
+    public void testBody_isRenderedOnceAndEscaped() {
+        var exception = new InvalidBodyException("Unexpected \"token\"");
+
+        var body = exception.body();
+
+        assertEquals("{\"error\":\"Unexpected \\\"token\\\"\"}", new String(body, StandardCharsets.UTF_8));
+        assertSame(body, exception.body());
+    }
+
+    @Test
+    public void testSharedInstance_canBeThrownRepeatedly() {
+        var shared = new ServiceUnavailableException("The server is busy, try again later", 1);
+        for (var i = 0; i < 3; i++) {
+            var thrown = assertThrows(HttpCustomException.class, () -> {
+                throw shared;
+            });
+            assertSame(shared, thrown);
+        }
+        shared.addSuppressed(new RuntimeException("ignored"));
+
+        assertEquals(0, shared.getSuppressed().length);
+        assertEquals(0, shared.getStackTrace().length);
+    }
+}
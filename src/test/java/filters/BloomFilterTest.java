@@ -0,0 +1,44 @@
+package filters;
+import module java.base;
+import org.david.miscellaneous.filters.BloomFilter;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BloomFilterTest {
+
+    @Test
+    public void testMightContain_insertedValues_neverFalseNegative() {
+        var filter = new BloomFilter(10_000, 0.01);
+        for (var i = 0; i < 10_000; i++) {
+            filter.put("user" + i + "@example.com");
+        }
+        for (var i = 0; i < 10_000; i++) {
+            assertTrue(filter.mightContain("user" + i + "@example.com"));
+        }
+        assertEquals(10_000, filter.insertions());
+    }
+
+    @Test
+    public void testMightContain_unknownValues_staysNearConfiguredRate() {
+        var filter = new BloomFilter(10_000, 0.01);
+        for (var i = 0; i < 10_000; i++) {
+            filter.put("user" + i + "@example.com");
+        }
+        var falsePositives = 0;
+        for (var i = 0; i < 100_000; i++) {
+            if (filter.mightContain("stranger" + i + "@example.com")) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives / 100_000.0 < 0.02, "false positive rate too high: " + falsePositives);
+        assertTrue(filter.expectedFalsePositiveRate() < 0.02);
+    }
+
+    @Test
+    public void testMemoryFootprint_matchesSizingFormula() {
+        var filter = new BloomFilter(1_000_000, 0.01);
+        // ~9.6 bits per element for a 1% target
+        assertTrue(filter.memoryFootprintBytes() < 1_300_000);
+    }
+}
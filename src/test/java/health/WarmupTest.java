@@ -0,0 +1,85 @@
+package health;
+import module java.base;
+import org.david.domain.repository.InMemoryUserStore;
+import org.david.miscellaneous.criptography.CryptManager;
+import org.david.miscellaneous.criptography.HashProfile;
+import org.david.miscellaneous.health.Readiness;
+import org.david.miscellaneous.health.Warmup;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WarmupTest {
+
+    @Test
+    public void testRun_stepsRunInOrderThenReady() throws Exception {
+        var readiness = new Readiness();
+        var ran = new ArrayList<String>();
+        var warmup = new Warmup(readiness)
+            .step("database", () -> {
+                assertEquals("database", readiness.pendingStep());
+                ran.add("database");
+            })
+            .step("hot-paths", () -> ran.add("hot-paths"));
+
+        assertFalse(readiness.isReady());
+        warmup.run();
+
+        assertEquals(List.of("database", "hot-paths"), ran);
+        assertTrue(readiness.isReady());
+        assertNull(readiness.pendingStep());
+    }
+
+    @Test
+    public void testRun_failingStepIsThrownAndLeavesItNotReady() {
+        var readiness = new Readiness();
+        var warmup = new Warmup(readiness).step("database", () -> {
+            throw new SQLException("connection refused");
+        });
+
+        assertThrows(SQLException.class, warmup::run);
+        assertFalse(readiness.isReady());
+        assertEquals("database", readiness.pendingStep());
+    }
+
+    @Test
+    public void testRunInBackground_retriesAFailingStepUntilItSucceeds() throws Exception {
+        var readiness = new Readiness();
+        var attempts = new AtomicInteger();
+        var warmup = new Warmup(readiness).step("database", () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new SQLException("not up yet");
+            }
+        });
+
+        var thread = warmup.runInBackground();
+        assertFalse(readiness.isReady());
+        thread.join(Duration.ofSeconds(10));
+
+        assertEquals(3, attempts.get());
+        assertTrue(readiness.isReady());
+    }
+
+    @Test
+    public void testHotPaths_writeNothing() throws Exception {
+        var profile = CryptManager.defaultProfile();
+        CryptManager.configure(HashProfile.parse("pbkdf2-sha256:1000"));
+        try {
+            var store = new InMemoryUserStore();
+
+            Warmup.hotPaths(store, 200).run();
+
+            assertEquals(0, store.size());
+            assertEquals(0, store.dataVersion());
+        } finally {
+            CryptManager.configure(profile);
+        }
+    }
+
+    @Test
+    public void testReady_isAlreadyReady() {
+        assertTrue(Readiness.ready().isReady());
+    }
+}
@@ -0,0 +1,46 @@
+package metrics;
+import module java.base;
+import io.javalin.http.HandlerType;
+import org.david.miscellaneous.metrics.LatencyHistogram;
+import org.david.miscellaneous.metrics.MetricsRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testPercentiles_uniformValues_withinBucketError() {
+        var histogram = new LatencyHistogram();
+        for (var micros = 1; micros <= 10_000; micros++) {
+            histogram.recordMicros(micros);
+        }
+
+        assertEquals(10_000, histogram.count());
+        assertEquals(10_000, histogram.maxMicros());
+        assertEquals(5_000, histogram.percentileMicros(50), 5_000 * 0.125);
+        assertEquals(9_900, histogram.percentileMicros(99), 9_900 * 0.125);
+        assertTrue(histogram.percentileMicros(99.9) <= histogram.maxMicros());
+    }
+
+    @Test
+    public void testPercentiles_emptyHistogram_isZero() {
+        assertEquals(0, new LatencyHistogram().percentileMicros(99));
+    }
+
+    @Test
+    public void testScrape_rendersRoutesStatusesAndGauges() {
+        var registry = MetricsRegistry.instance;
+        registry.recordRequest(HandlerType.POST, "/users/login", 200, 1_500);
+        registry.recordRequest(HandlerType.GET, "", 404, 100);
+        registry.gauge("test_gauge", "A test gauge", "", () -> 3);
+
+        var scrape = registry.scrape();
+
+        assertTrue(scrape.contains("http_server_request_duration_seconds_count{method=\"POST\",route=\"/users/login\"}"));
+        assertTrue(scrape.contains("route=\"unmatched\""));
+        assertTrue(scrape.contains("quantile=\"0.999\""));
+        assertTrue(scrape.contains("http_server_responses_total{status=\"404\"}"));
+        assertTrue(scrape.contains("test_gauge 3\n"));
+    }
+}
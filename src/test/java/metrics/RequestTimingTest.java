@@ -0,0 +1,87 @@
+package metrics;
+import module java.base;
+import org.david.miscellaneous.metrics.RequestTiming;
+import org.david.miscellaneous.metrics.RequestTiming.Phase;
+import org.david.miscellaneous.metrics.SlowRequestLog;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RequestTimingTest {
+    private static final long MILLIS = 1_000_000;
+
+    @Test
+    public void testRecord_addsToTheCurrentRequestOnly() {
+        RequestTiming.record(Phase.DB_QUERY, 5 * MILLIS);
+
+        var timing = RequestTiming.start();
+        try {
+            RequestTiming.record(Phase.DB_QUERY, 2 * MILLIS);
+            RequestTiming.record(Phase.DB_QUERY, 3 * MILLIS);
+            RequestTiming.record(Phase.CRYPT, 40 * MILLIS);
+
+            assertSame(timing, RequestTiming.current());
+            assertEquals(5 * MILLIS, timing.nanos(Phase.DB_QUERY));
+            assertEquals(2, timing.count(Phase.DB_QUERY));
+            assertEquals(0, timing.count(Phase.PARSE));
+        } finally {
+            RequestTiming.finish(timing);
+        }
+        assertNull(RequestTiming.current());
+    }
+
+    @Test
+    public void testServerTiming_listsOnlyPhasesThatRanInMillis() {
+        var timing = RequestTiming.start();
+        try {
+            RequestTiming.record(Phase.PARSE, 120_000);
+            RequestTiming.record(Phase.DB_QUERY, 1_045_000);
+            RequestTiming.record(Phase.DB_QUERY, 5_000);
+            RequestTiming.record(Phase.CRYPT, 42 * MILLIS);
+
+            var header = timing.serverTiming();
+
+            assertTrue(header.startsWith("parse;dur=0.120, db-query;dur=1.050;desc=\"2\", crypt;dur=42.000, total;dur="), header);
+            assertFalse(header.contains("db-pool"));
+        } finally {
+            RequestTiming.finish(timing);
+        }
+    }
+
+    @Test
+    public void testFinish_recycledTimingStartsEmpty() {
+        var first = RequestTiming.start();
+        RequestTiming.record(Phase.SERIALIZE, MILLIS);
+        RequestTiming.finish(first);
+
+        var second = RequestTiming.start();
+        try {
+            assertSame(first, second);
+            assertEquals(0, second.count(Phase.SERIALIZE));
+            assertEquals(0, second.nanos(Phase.SERIALIZE));
+        } finally {
+            RequestTiming.finish(second);
+        }
+    }
+
+    @Test
+    public void testSlowRequestLog_skipsFastRequestsAndCapsLinesPerSecond() {
+        var now = new AtomicLong();
+        var slowLog = new SlowRequestLog(Duration.ZERO, 2, now::get);
+        var fastLog = new SlowRequestLog(Duration.ofHours(1), 2, now::get);
+        var timing = RequestTiming.start();
+        try {
+            assertFalse(fastLog.record("GET", "/users/get-all", 200, timing));
+            assertEquals(0, fastLog.slowRequests());
+
+            assertTrue(slowLog.record("POST", "/users/login", 200, timing));
+            assertTrue(slowLog.record("POST", "/users/login", 200, timing));
+            assertFalse(slowLog.record("POST", "/users/login", 200, timing));
+            now.addAndGet(1_000 * MILLIS);
+            assertTrue(slowLog.record("POST", "/users/login", 200, timing));
+            assertEquals(4, slowLog.slowRequests());
+        } finally {
+            RequestTiming.finish(timing);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package repository;
+import module java.base;
+import org.david.domain.models.UserModels.*;
+import org.david.domain.repository.GroupCommitWriter;
+import org.david.miscellaneous.custom_exceptions.CustomExceptions.ServiceUnavailableException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GroupCommitWriterTest {
+
+    @Test
+    public void testSubmit_concurrentCallers_areFlushedTogether() throws Exception {
+        var batchSizes = new ConcurrentLinkedQueue<Integer>();
+        try (var writer = new GroupCommitWriter(50, Duration.ofMillis(20), users -> {
+            batchSizes.add(users.size());
+            return users.stream()
+                .map(user -> user.email().startsWith("taken") ? InsertOutcome.CONFLICT : InsertOutcome.CREATED)
+                .toList();
+        })) {
+            var futures = new ArrayList<CompletableFuture<InsertOutcome>>();
+            for (var i = 0; i < 200; i++) {
+                var email = (i % 10 == 0 ? "taken" : "user") + i + "@example.com";
+                futures.add(writer.submit(new User(null, email, "hash")));
+            }
+            for (var i = 0; i < futures.size(); i++) {
+                var expected = i % 10 == 0 ? InsertOutcome.CONFLICT : InsertOutcome.CREATED;
+                assertEquals(expected, futures.get(i).get(5, TimeUnit.SECONDS));
+            }
+            assertTrue(batchSizes.size() < 200);
+            assertTrue(batchSizes.stream().allMatch(size -> size <= 50));
+            assertEquals(200, writer.stats().flushedUsers());
+        }
+    }
+
+    @Test
+    public void testSubmit_flushFailure_failsEveryCallerInBatch() throws Exception {
+        try (var writer = new GroupCommitWriter(10, Duration.ofMillis(5), _ -> {
+            throw new IllegalStateException("database down");
+        })) {
+            var future = writer.submit(new User(null, "a@example.com", "hash"));
+            var error = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalStateException.class, error.getCause());
+        }
+    }
+
+    @Test
+    public void testSubmit_afterClose_failsWith503() throws Exception {
+        var writer = new GroupCommitWriter(10, Duration.ofMillis(5), users -> users.stream()
+            .map(_ -> InsertOutcome.CREATED)
+            .toList());
+        var queued = writer.submit(new User(null, "a@example.com", "hash"));
+        writer.close();
+
+        assertEquals(InsertOutcome.CREATED, queued.get(5, TimeUnit.SECONDS));
+        var error = assertThrows(ExecutionException.class, () -> writer.submit(new User(null, "b@example.com", "hash")).get(5, TimeUnit.SECONDS));
+        var unavailable = assertInstanceOf(ServiceUnavailableException.class, error.getCause());
+        assertEquals(503, unavailable.statusCode);
+    }
+}
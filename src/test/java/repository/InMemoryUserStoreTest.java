@@ -0,0 +1,159 @@
+package repository;
+import module java.base;
+import org.david.boundaries.adapters.UserEntity;
+import org.david.domain.models.UserModels.*;
+import org.david.domain.repository.InMemoryUserStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InMemoryUserStoreTest {
+
+    @Test
+    public void testCreateUser_thenLookupIgnoresCase() {
+        var store = new InMemoryUserStore();
+
+        assertEquals(1, store.createUser(new User(null, "Alice@Example.com", "hash-a")));
+
+        var found = store.getSingleUser(" alice@example.COM").orElseThrow();
+        assertEquals(1, found.id);
+        assertEquals("Alice@Example.com", found.email);
+        assertEquals("hash-a", found.password);
+        assertTrue(store.getSingleUser("bob@example.com").isEmpty());
+    }
+
+    @Test
+    public void testCreateUser_sameEmailDifferentCase_isConflict() {
+        var store = new InMemoryUserStore();
+        store.createUser(new User(null, "alice@example.com", "hash-a"));
+
+        assertEquals(0, store.createUser(new User(null, "ALICE@example.com", "hash-b")));
+        assertEquals(
+            List.of(InsertOutcome.CREATED, InsertOutcome.CONFLICT, InsertOutcome.CONFLICT),
+            store.createUsers(List.of(
+                new User(null, "bob@example.com", "h"),
+                new User(null, "Bob@example.com", "h"),
+                new User(null, "alice@example.com", "h"))));
+        assertEquals(2, store.size());
+    }
+
+    @Test
+    public void testUpdatePassword_bumpsVersionAndRejectsStaleVersion() {
+        var store = new InMemoryUserStore();
+        store.createUser(new User(null, "alice@example.com", "hash-a"));
+
+        var updated = store.updatePassword("ALICE@example.com", "hash-b", 0L);
+        assertEquals(UpdateOutcome.UPDATED, updated.outcome());
+        assertEquals(1L, updated.version());
+        assertEquals("hash-b", store.getSingleUser("alice@example.com").orElseThrow().password);
+
+        var stale = store.updatePassword("alice@example.com", "hash-c", 0L);
+        assertEquals(UpdateOutcome.VERSION_CONFLICT, stale.outcome());
+        assertEquals(1L, stale.version());
+        assertEquals(UpdateOutcome.NOT_FOUND, store.updatePassword("bob@example.com", "hash", null).outcome());
+        assertEquals(UpdateOutcome.UPDATED, store.updatePassword("alice@example.com", "hash-d", null).outcome());
+    }
+
+    @Test
+    public void testRehashPassword_onlyReplacesTheVerifiedHash() {
+        var store = new InMemoryUserStore();
+        store.createUser(new User(null, "alice@example.com", "old"));
+        var verified = store.getSingleUser("alice@example.com").orElseThrow();
+
+        store.updatePassword("alice@example.com", "changed", null);
+
+        assertFalse(store.rehashPassword(verified, "rehashed"));
+        assertEquals("changed", store.getSingleUser("alice@example.com").orElseThrow().password);
+        var current = store.getSingleUser("alice@example.com").orElseThrow();
+        assertTrue(store.rehashPassword(current, "rehashed"));
+        assertEquals("rehashed", store.getSingleUser("alice@example.com").orElseThrow().password);
+    }
+
+    @Test
+    public void testGetUsersPage_walksIdsInOrder() {
+        var store = new InMemoryUserStore();
+        for (var i = 0; i < 10; i++) {
+            store.createUser(new User(null, "user" + i + "@example.com", "h"));
+        }
+
+        var page = store.getUsersPage(3, 4);
+
+        assertEquals(List.of(4, 5, 6, 7), page.stream().map(user -> user.id).toList());
+        assertEquals(10, store.getUsers().size());
+        assertTrue(store.getUsersPage(10, 5).isEmpty());
+    }
+
+    @Test
+    public void testConcurrentCreates_growTheIndexWithoutLosingUsers() throws Exception {
+        var store = new InMemoryUserStore();
+        var created = new LongAdder();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (var thread = 0; thread < 8; thread++) {
+                executor.submit(() -> {
+                    // every thread tries every email, exactly one of them wins each
+                    for (var i = 0; i < 20_000; i++) {
+                        created.add(store.createUser(new User(null, "user" + i + "@example.com", "h")));
+                    }
+                });
+            }
+        }
+
+        assertEquals(20_000, created.sum());
+        assertEquals(20_000, store.size());
+        for (var i = 0; i < 20_000; i += 997) {
+            assertTrue(store.getSingleUser("USER" + i + "@example.com").isPresent());
+        }
+    }
+
+    @Test
+    public void testSnapshot_reloadKeepsIdsVersionsAndHashes(@TempDir Path directory) throws Exception {
+        var store = new InMemoryUserStore();
+        for (var i = 0; i < 1_000; i++) {
+            store.createUser(new User(null, "user" + i + "@example.com", "hash-" + i));
+        }
+        store.updatePassword("user7@example.com", "changed", null);
+        var file = directory.resolve("users.snapshot");
+
+        assertEquals("hash-7".length(), store.unreachableBytes());
+        assertEquals(1_000, store.snapshot(file));
+        var reloaded = InMemoryUserStore.load(file);
+
+        assertEquals(1_000, reloaded.size());
+        assertEquals(0, reloaded.unreachableBytes());
+        UserEntity user = reloaded.getSingleUser("user7@example.com").orElseThrow();
+        assertEquals(8, user.id);
+        assertEquals("changed", user.password);
+        assertEquals(UpdateOutcome.VERSION_CONFLICT, reloaded.updatePassword("user7@example.com", "x", 0L).outcome());
+        assertEquals(0, reloaded.createUser(new User(null, "USER999@example.com", "h")));
+        assertEquals(1, reloaded.createUser(new User(null, "new@example.com", "h")));
+        assertEquals(1_001, reloaded.getSingleUser("new@example.com").orElseThrow().id);
+    }
+
+    @Test
+    public void testConcurrentSnapshots_leaveALoadableFile(@TempDir Path directory) throws Exception {
+        var store = new InMemoryUserStore();
+        for (var i = 0; i < 5_000; i++) {
+            store.createUser(new User(null, "user" + i + "@example.com", "hash-" + i));
+        }
+        var file = directory.resolve("users.snapshot");
+        var saves = new ArrayList<Future<Long>>();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (var i = 0; i < 16; i++) {
+                saves.add(executor.submit(() -> store.snapshot(file)));
+            }
+        }
+        for (var save : saves) {
+            assertEquals(5_000, save.get());
+        }
+
+        assertEquals(5_000, InMemoryUserStore.load(file).size());
+    }
+
+    @Test
+    public void testLoad_rejectsOtherFiles(@TempDir Path directory) throws Exception {
+        var file = Files.writeString(directory.resolve("users.snapshot"), "not a snapshot");
+
+        assertThrows(IOException.class, () -> InMemoryUserStore.load(file));
+    }
+}
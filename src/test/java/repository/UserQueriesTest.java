@@ -0,0 +1,44 @@
+package repository;
+import module java.base;
+import org.david.boundaries.adapters.SchemaMigrator;
+import org.david.domain.repository.UserQueries;
+import org.jooq.SQLDialect;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserQueriesTest {
+
+    @Test
+    public void testRenderedSql_postgres_usesPositionalPlaceholders() {
+        var queries = UserQueries.forDialect(SQLDialect.POSTGRES);
+
+        assertEquals("insert into users (email, password) values (?, ?)", queries.insertUser);
+        assertEquals("select id, email, password from users where id > ? order by id fetch next ? rows only", queries.selectUsersPage);
+        assertEquals("select id, email, password from users where lower(email) = lower(?)", queries.selectUserByEmail);
+        assertEquals("update users set password = ? where lower(email) = lower(?) returning id, email, password", queries.updatePasswordByEmail);
+        assertEquals("update users set password = ?, version = (version + 1) where (lower(email) = lower(?) and version = ?) returning id, email, password, version",
+            queries.updatePasswordByEmailIfVersion);
+    }
+
+    @Test
+    public void testRenderedSql_h2_matchesEmailColumnDirectly() {
+        var queries = UserQueries.forDialect(SQLDialect.H2);
+
+        assertTrue(queries.selectUserByEmail.contains("where email = "), queries.selectUserByEmail);
+    }
+
+    @Test
+    public void testMigrations_areNumberedWithoutGaps() {
+        var versions = SchemaMigrator.MIGRATIONS.stream().map(SchemaMigrator.Migration::version).toList();
+
+        assertEquals(IntStream.rangeClosed(1, versions.size()).boxed().toList(), versions);
+        assertEquals(versions.size(), SchemaMigrator.latestVersion());
+    }
+
+    @Test
+    public void testForDialect_rendersOncePerDialect() {
+        assertSame(UserQueries.forDialect(SQLDialect.H2), UserQueries.forDialect(SQLDialect.H2));
+        assertNotSame(UserQueries.forDialect(SQLDialect.H2), UserQueries.forDialect(SQLDialect.POSTGRES));
+    }
+}
@@ -0,0 +1,60 @@
+package repository;
+import module java.base;
+import org.david.boundaries.adapters.DB;
+import org.david.domain.models.UserModels.*;
+import org.david.domain.repository.UserRepository;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.jooq.SQLDialect;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserRepositoryTest {
+    private static final AtomicInteger databases = new AtomicInteger();
+
+    private JdbcConnectionPool pool;
+    private DB db;
+
+    @BeforeEach
+    public void setUp() throws SQLException {
+        pool = JdbcConnectionPool.create("jdbc:h2:mem:repository-test-" + databases.incrementAndGet() + ";DB_CLOSE_DELAY=-1", "sa", "");
+        try (var connection = pool.getConnection(); var statement = connection.createStatement()) {
+            statement.execute("create table users (id int auto_increment primary key, email varchar_ignorecase(255) not null unique, password varchar(255) not null, version bigint not null default 0)");
+        }
+        db = DB.using(pool, SQLDialect.H2);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        pool.dispose();
+    }
+
+    @Test
+    public void testCreateUsers_overAnExistingEmail_reportsAConflictForThatRow() {
+        var repository = new UserRepository(db);
+        repository.createUser(new User(null, "existing@example.com", "h"));
+
+        var outcomes = repository.createUsers(List.of(
+            new User(null, "first@example.com", "h"),
+            new User(null, "EXISTING@example.com", "h"),
+            new User(null, "second@example.com", "h")));
+
+        assertEquals(List.of(InsertOutcome.CREATED, InsertOutcome.CONFLICT, InsertOutcome.CREATED), outcomes);
+        assertEquals("h", repository.getSingleUser("existing@example.com").orElseThrow().password);
+    }
+
+    @Test
+    public void testCreateUser_takenEmail_returnsZeroOnBothPaths() {
+        var repository = new UserRepository(db);
+        assertEquals(1, repository.createUser(new User(null, "taken@example.com", "h")));
+
+        assertEquals(0, repository.createUser(new User(null, "TAKEN@example.com", "h")));
+        repository.enableGroupCommit(8, Duration.ofMillis(1));
+        assertEquals(0, repository.createUser(new User(null, "taken@example.com", "h")));
+        assertEquals(1, repository.createUser(new User(null, "new@example.com", "h")));
+    }
+}
@@ -0,0 +1,77 @@
+package serialization;
+import module java.base;
+import com.fasterxml.jackson.core.JsonParseException;
+import org.david.domain.models.Errors;
+import org.david.domain.models.ResponseModel;
+import org.david.domain.models.UserModels;
+import org.david.miscellaneous.serialization.JsonCodecs;
+import org.david.miscellaneous.serialization.JsonMappers;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JsonCodecsTest {
+
+    private static <T> String write(JsonCodecs.Writer<T> writer, T value) throws IOException {
+        var out = new ByteArrayOutputStream();
+        try (var generator = JsonCodecs.generator(out)) {
+            writer.write(generator, value);
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testReadUser_skipsUnknownFieldsAndNestedValues() throws Exception {
+        var user = JsonCodecs.readUser("""
+            {"extra": {"nested": [1, {"email": "wrong"}]}, "email": "a@example.com", "id": 7, "password": "secret", "more": null}""");
+
+        assertEquals(new UserModels.User(7, "a@example.com", "secret"), user);
+    }
+
+    @Test
+    public void testReadUser_emptyOrNullBody_returnsNull() throws Exception {
+        assertNull(JsonCodecs.readUser(""));
+        assertNull(JsonCodecs.readUser("null"));
+        assertEquals(new UserModels.User(null, null, null), JsonCodecs.readUser("{}"));
+    }
+
+    @Test
+    public void testReadUser_rejectsWrongShapes() {
+        assertThrows(JsonParseException.class, () -> JsonCodecs.readUser("[1]"));
+        assertThrows(JsonParseException.class, () -> JsonCodecs.readUser("{\"email\": {\"a\": 1}}"));
+        assertThrows(JsonParseException.class, () -> JsonCodecs.readUser("{\"id\": \"seven\"}"));
+        assertThrows(JsonParseException.class, () -> JsonCodecs.readUser("{\"email\": "));
+    }
+
+    @Test
+    public void testWriters_matchTheReflectiveMapper() throws Exception {
+        var users = List.of(new UserModels.User(1, "a@example.com", null), new UserModels.User(2, "b\"@example.com", null));
+        var page = new UserModels.Page(users, null);
+        var session = new UserModels.Session("token", 42);
+        var errors = new Errors(List.of("first", "second"));
+        var mapper = JsonMappers.shared;
+
+        assertEquals(mapper.writeValueAsString(users.getFirst()), write(JsonCodecs.USER, users.getFirst()));
+        assertEquals(mapper.writeValueAsString(users), write(JsonCodecs.USER_LIST, users));
+        assertEquals(mapper.writeValueAsString(page), write(JsonCodecs.PAGE, page));
+        assertEquals(mapper.writeValueAsString(new UserModels.Page(users, 2)), write(JsonCodecs.PAGE, new UserModels.Page(users, 2)));
+        assertEquals(mapper.writeValueAsString(session), write(JsonCodecs.SESSION, session));
+        assertEquals(mapper.writeValueAsString(errors), write(JsonCodecs.ERRORS_WRITER, errors));
+        assertEquals(mapper.writeValueAsString(Map.of("error", "bad \"input\"")), write(JsonCodecs.ERROR_MESSAGE, "bad \"input\""));
+    }
+
+    @Test
+    public void testWriteResponse_leavesOutNullParts() throws Exception {
+        var out = new ByteArrayOutputStream();
+        try (var generator = JsonCodecs.generator(out)) {
+            generator.writeStartObject();
+            JsonCodecs.writeResponse(generator, "data", new ResponseModel<>(new UserModels.User(1, "a@example.com", null), null), JsonCodecs.USER);
+            JsonCodecs.writeResponse(generator, "failed", new ResponseModel<UserModels.User>(null, new Errors(List.of("bad"))), JsonCodecs.USER);
+            generator.writeEndObject();
+        }
+
+        assertEquals(
+            "{\"data\":{\"response\":{\"id\":1,\"email\":\"a@example.com\"}},\"failed\":{\"errors\":{\"errors\":[\"bad\"]}}}",
+            out.toString(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,94 @@
+package throttling;
+import module java.base;
+import org.david.miscellaneous.throttling.ConcurrencyLimiter;
+import org.david.miscellaneous.throttling.ConcurrencyLimiter.Priority;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConcurrencyLimiterTest {
+    private static final long MILLIS = 1_000_000;
+
+    private static ConcurrencyLimiter limiter(int initialLimit) {
+        return new ConcurrencyLimiter(new ConcurrencyLimiter.Settings(true, initialLimit, 4, 200, 1.5));
+    }
+
+    @Test
+    public void testTryAcquire_lowerPrioritiesAreShedFirst() {
+        var limiter = limiter(20);
+        for (var i = 0; i < 15; i++) {
+            assertTrue(limiter.tryAcquire(Priority.SHEDDABLE));
+        }
+
+        assertFalse(limiter.tryAcquire(Priority.SHEDDABLE));
+        for (var i = 0; i < 3; i++) {
+            assertTrue(limiter.tryAcquire(Priority.NORMAL));
+        }
+        assertFalse(limiter.tryAcquire(Priority.NORMAL));
+        assertTrue(limiter.tryAcquire(Priority.CRITICAL));
+        assertTrue(limiter.tryAcquire(Priority.CRITICAL));
+        assertFalse(limiter.tryAcquire(Priority.CRITICAL));
+
+        assertEquals(20, limiter.inFlight());
+        assertEquals(1, limiter.rejected(Priority.SHEDDABLE));
+        assertEquals(1, limiter.rejected(Priority.CRITICAL));
+    }
+
+    @Test
+    public void testRelease_risingLatencyShrinksTheLimitDownToTheMinimum() {
+        var limiter = limiter(100);
+        for (var i = 0; i < 100; i++) {
+            limiter.tryAcquire(Priority.NORMAL);
+            limiter.release("/users/login", 10 * MILLIS);
+        }
+        var steady = limiter.limit();
+
+        for (var i = 0; i < 20; i++) {
+            limiter.tryAcquire(Priority.NORMAL);
+            limiter.release("/users/login", 200 * MILLIS);
+        }
+
+        assertTrue(limiter.limit() < steady / 2, "limit " + limiter.limit() + " should shrink from " + steady);
+        for (var i = 0; i < 200; i++) {
+            limiter.tryAcquire(Priority.NORMAL);
+            limiter.release("/users/login", 10_000 * MILLIS);
+        }
+        assertEquals(4, limiter.limit(), 0.5);
+    }
+
+    @Test
+    public void testRelease_eachRouteIsJudgedAgainstItsOwnLatency() {
+        var limiter = limiter(16);
+        var permits = 0;
+        while (limiter.tryAcquire(Priority.CRITICAL)) {
+            permits++;
+        }
+        // a slow route at its usual latency is not a reason to shrink, so a saturated limit keeps growing
+        for (var i = 0; i < permits; i++) {
+            limiter.release(i % 2 == 0 ? "/users/get-all" : "/users/login", (i % 2 == 0 ? 500 : 5) * MILLIS);
+            limiter.tryAcquire(Priority.CRITICAL);
+        }
+
+        assertTrue(limiter.limit() > 16, "limit " + limiter.limit() + " should grow");
+    }
+
+    @Test
+    public void testRelease_underusedLimitDoesNotGrow() {
+        var limiter = limiter(50);
+        for (var i = 0; i < 1_000; i++) {
+            limiter.tryAcquire(Priority.NORMAL);
+            limiter.release("/users/login", MILLIS);
+        }
+
+        assertEquals(50, limiter.limit());
+        assertEquals(0, limiter.inFlight());
+    }
+
+    @Test
+    public void testDisabled_admitsEverything() {
+        for (var i = 0; i < 10_000; i++) {
+            assertTrue(ConcurrencyLimiter.DISABLED.tryAcquire(Priority.SHEDDABLE));
+        }
+        assertEquals(0, ConcurrencyLimiter.DISABLED.inFlight());
+    }
+}
@@ -0,0 +1,120 @@
+package throttling;
+import module java.base;
+import org.david.miscellaneous.custom_exceptions.CustomExceptions.*;
+import org.david.miscellaneous.throttling.LoginThrottle;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoginThrottleTest {
+    private final AtomicLong clock = new AtomicLong();
+
+    private LoginThrottle throttle(int maxEntries) {
+        return new LoginThrottle(new LoginThrottle.Settings(
+            true, 60, 3, 5, 6, 2, 2, Duration.ofSeconds(1), Duration.ofSeconds(8), Duration.ofMinutes(1), maxEntries),
+            clock::get);
+    }
+
+    @Test
+    public void testCheckClient_overTheBurst_isRejectedUntilATokenRefills() {
+        var throttle = throttle(100);
+        for (var i = 0; i < 3; i++) {
+            throttle.checkClient("10.0.0.1");
+        }
+
+        var rejected = assertThrows(TooManyRequestsException.class, () -> throttle.checkClient("10.0.0.1"));
+        assertEquals(429, rejected.statusCode);
+        assertEquals(1, rejected.retryAfterSeconds);
+        throttle.checkClient("10.0.0.2");
+
+        clock.addAndGet(Duration.ofSeconds(1).toNanos());
+        throttle.checkClient("10.0.0.1");
+        assertThrows(TooManyRequestsException.class, () -> throttle.checkClient("10.0.0.1"));
+    }
+
+    @Test
+    public void testCheckAccount_keysOnTheNormalizedEmail() {
+        var throttle = throttle(100);
+        throttle.checkAccount("alice@example.com");
+        throttle.checkAccount(" ALICE@example.com");
+
+        assertThrows(TooManyRequestsException.class, () -> throttle.checkAccount("Alice@Example.com"));
+        assertEquals(1, throttle.trackedAccounts());
+    }
+
+    @Test
+    public void testRecordResult_failuresPastTheFreeOnesDoubleTheDelay() {
+        var throttle = throttle(100);
+        throttle.recordResult("10.0.0.1", "alice@example.com", false);
+        throttle.recordResult("10.0.0.1", "alice@example.com", false);
+        clock.addAndGet(Duration.ofSeconds(10).toNanos());
+        throttle.checkAccount("alice@example.com");
+
+        throttle.recordResult("10.0.0.1", "alice@example.com", false);
+        assertEquals(1, assertThrows(TooManyRequestsException.class, () -> throttle.checkAccount("alice@example.com")).retryAfterSeconds);
+        throttle.recordResult("10.0.0.1", "alice@example.com", false);
+        assertEquals(2, assertThrows(TooManyRequestsException.class, () -> throttle.checkAccount("alice@example.com")).retryAfterSeconds);
+        for (var i = 0; i < 5; i++) {
+            throttle.recordResult("10.0.0.1", "alice@example.com", false);
+        }
+        assertEquals(8, assertThrows(TooManyRequestsException.class, () -> throttle.checkAccount("alice@example.com")).retryAfterSeconds);
+    }
+
+    @Test
+    public void testRecordResult_successClearsTheAccountStreakButNotTheClients() {
+        var throttle = throttle(100);
+        for (var i = 0; i < 4; i++) {
+            throttle.recordResult("10.0.0.1", "alice@example.com", false);
+        }
+        throttle.recordResult("10.0.0.1", "bob@example.com", true);
+        throttle.recordResult("10.0.0.1", "alice@example.com", true);
+        clock.addAndGet(Duration.ofSeconds(10).toNanos());
+
+        throttle.recordResult("10.0.0.1", "alice@example.com", false);
+        throttle.checkAccount("alice@example.com");
+        throttle.recordResult("10.0.0.1", "alice@example.com", false);
+        assertThrows(TooManyRequestsException.class, () -> throttle.checkClient("10.0.0.1"));
+    }
+
+    @Test
+    public void testRecordResult_streakIsForgottenAfterTheIdleTimeout() {
+        var throttle = throttle(100);
+        for (var i = 0; i < 3; i++) {
+            throttle.recordResult("10.0.0.1", "alice@example.com", false);
+        }
+        clock.addAndGet(Duration.ofMinutes(2).toNanos());
+
+        throttle.recordResult("10.0.0.1", "alice@example.com", false);
+        throttle.checkAccount("alice@example.com");
+    }
+
+    @Test
+    public void testIdleEntries_areEvictedAndAFullMapFallsBackToSharedBuckets() {
+        var throttle = throttle(10);
+        for (var i = 0; i < 10; i++) {
+            throttle.checkClient("10.0.0." + i);
+        }
+        for (var i = 0; i < 1_000; i++) {
+            try {
+                throttle.checkClient("10.0.1." + i);
+            } catch (TooManyRequestsException ignored) {
+                // overflow keys share a few buckets, some of them run dry
+            }
+        }
+        assertEquals(10, throttle.trackedClients());
+
+        clock.addAndGet(Duration.ofMinutes(2).toNanos());
+        throttle.checkClient("10.0.2.1");
+
+        assertEquals(1, throttle.trackedClients());
+    }
+
+    @Test
+    public void testDisabled_neverThrottles() {
+        for (var i = 0; i < 1_000; i++) {
+            LoginThrottle.DISABLED.recordResult("10.0.0.1", "alice@example.com", false);
+            LoginThrottle.DISABLED.checkClient("10.0.0.1");
+            LoginThrottle.DISABLED.checkAccount("alice@example.com");
+        }
+    }
+}
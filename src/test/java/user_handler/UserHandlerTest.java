@@ -1,13 +1,21 @@
 package user_handler;
 import module java.base;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.javalin.http.Context;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import io.javalin.validation.Validation;
+import io.javalin.validation.ValidationException;
 import org.david.boundaries.adapters.UserEntity;
 import org.david.boundaries.rest.handlers.UserHandlers;
 import org.david.domain.models.UserModels;
-import org.david.domain.repository.UserRepository;
+import org.david.domain.repository.UserStore;
 import org.david.miscellaneous.custom_exceptions.CustomExceptions.*;
 import org.david.miscellaneous.criptography.CryptManager;
+import org.david.miscellaneous.criptography.HashProfile;
+import org.david.miscellaneous.criptography.TokenManager;
+import org.david.miscellaneous.validators.UserValidators;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -17,18 +25,40 @@ import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
 public class UserHandlerTest {
-    private UserRepository userRepository;
+    private UserStore userRepository;
     private Context ctx;
     private UserHandlers userHandlers;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     @BeforeEach
     public void setUp() {
-        userRepository = mock(UserRepository.class);
+        userRepository = mock(UserStore.class);
         ctx = mock(Context.class);
         userHandlers = new UserHandlers(userRepository);
     }
 
+    // the handlers write their JSON straight into the response stream
+    private ByteArrayOutputStream responseBody() {
+        var body = new ByteArrayOutputStream();
+        when(ctx.outputStream()).thenReturn(new ServletOutputStream() {
+            public boolean isReady() {
+                return true;
+            }
+
+            public void setWriteListener(WriteListener writeListener) {
+            }
+
+            public void write(int b) {
+                body.write(b);
+            }
+        });
+        return body;
+    }
+
+    private JsonNode json(ByteArrayOutputStream body) throws IOException {
+        return objectMapper.readTree(body.toByteArray());
+    }
+
     @Test
     public void testCreateUser_successfulCreation_returns201() throws Exception {
         var user = new UserModels.User(0, "test@example.com", "password123");
@@ -36,29 +66,95 @@ public class UserHandlerTest {
 
         when(ctx.body()).thenReturn(jsonBody);
         when(userRepository.createUser(any())).thenReturn(1);
-        when(ctx.status(201)).thenReturn(ctx);
-
-        var captor = ArgumentCaptor.forClass(Map.class);
-        when(ctx.json(captor.capture())).thenReturn(ctx);
 
         userHandlers.createUser(ctx);
 
+        var captor = ArgumentCaptor.forClass(byte[].class);
         verify(ctx).status(201);
-        assertEquals("User created successfully", captor.getValue().get("Message"));
+        verify(ctx).result(captor.capture());
+        assertEquals("User created successfully", objectMapper.readTree(captor.getValue()).get("Message").asText());
     }
 
     @Test
-    public void testCreateUser_failedCreation_throwsException() throws Exception {
+    public void testCreateUser_emailTaken_throwsConflict() throws Exception {
         var user = new UserModels.User(0, "fail@example.com", "password123");
         var jsonBody = objectMapper.writeValueAsString(user);
 
         when(ctx.body()).thenReturn(jsonBody);
         when(userRepository.createUser(any())).thenReturn(0);
 
-        var ex = assertThrows(FailedToCreateUserException.class, () -> {
+        var ex = assertThrows(ConflictException.class, () -> {
             userHandlers.createUser(ctx);
         });
-        assertEquals("Could not create user", ex.message);
+        assertEquals("The user already exists", ex.message);
+        assertEquals(409, ex.statusCode);
+    }
+
+    @Test
+    public void testCreateUser_boundDto_doesNotReparseBody() throws Exception {
+        var user = new UserModels.User(0, "bound@example.com", "password123");
+
+        when(ctx.attribute(UserValidators.USER_DTO)).thenReturn(user);
+        when(userRepository.createUser(any())).thenReturn(1);
+
+        userHandlers.createUser(ctx);
+
+        verify(ctx, never()).body();
+        verify(userRepository).createUser(argThat(created -> created.email().equals("bound@example.com")));
+    }
+
+    @Test
+    public void testUserDtoValidator_blankPassword_throwsValidationException() throws Exception {
+        var user = new UserModels.User(0, "blank@example.com", " ");
+
+        when(ctx.body()).thenReturn(objectMapper.writeValueAsString(user));
+
+        assertThrows(ValidationException.class, () -> UserValidators.userDtoValidator(ctx));
+        verify(ctx, never()).attribute(eq(UserValidators.USER_DTO), any());
+    }
+
+    @Test
+    public void testUserDtoValidator_malformedJson_throwsInvalidBody() {
+        when(ctx.body()).thenReturn("{\"email\": ");
+
+        assertThrows(InvalidBodyException.class, () -> UserValidators.userDtoValidator(ctx));
+    }
+
+    @Test
+    public void testBulkCreateUsers_ndjson_reportsEveryRow() throws Exception {
+        var body = """
+            {"email": "one@example.com", "password": "password123"}
+            {"email": "two@example.com", "password": "password123"}
+            {"email": "broken@example.com",
+            {"email": "ONE@example.com", "password": "password123"}
+            {"email": "", "password": "password123"}
+            """;
+        when(ctx.bodyInputStream()).thenReturn(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+        when(userRepository.createUsers(any())).thenReturn(List.of(UserModels.InsertOutcome.CREATED, UserModels.InsertOutcome.CONFLICT));
+        var response = responseBody();
+
+        userHandlers.bulkCreateUsers(ctx);
+
+        var report = json(response).get("data").get("response");
+        assertEquals(1, report.get("created").asInt());
+        assertEquals(2, report.get("conflicts").asInt());
+        assertEquals(2, report.get("invalid").asInt());
+        assertEquals("INVALID", report.get("rows").get(2).get("status").asText());
+        assertEquals("CONFLICT", report.get("rows").get(3).get("status").asText());
+        verify(userRepository).createUsers(argThat(users -> users.size() == 2));
+    }
+
+    @Test
+    public void testBulkCreateUsers_jsonArray_hashesPasswords() throws Exception {
+        var body = "[{\"email\": \"one@example.com\", \"password\": \"password123\"}]";
+        when(ctx.bodyInputStream()).thenReturn(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+        when(userRepository.createUsers(any())).thenReturn(List.of(UserModels.InsertOutcome.CREATED));
+        responseBody();
+
+        userHandlers.bulkCreateUsers(ctx);
+
+        verify(userRepository).createUsers(argThat(users ->
+            CryptManager.verifyPassword("password123", users.getFirst().password())));
     }
 
     @Test
@@ -67,14 +163,86 @@ public class UserHandlerTest {
 
         when(userRepository.getUsers()).thenReturn(List.of(userEntity));
 
-        var captor = ArgumentCaptor.forClass(Map.class);
-        when(ctx.json(captor.capture())).thenReturn(ctx);
-        when(ctx.status(200)).thenReturn(ctx);
-
         userHandlers.getAllUsers(ctx);
 
+        var captor = ArgumentCaptor.forClass(byte[].class);
         verify(ctx).status(200);
-        assertNotNull(captor.getValue().get("users"));
+        verify(ctx).result(captor.capture());
+        var users = objectMapper.readTree(captor.getValue()).get("users").get("response");
+        assertEquals(1, users.size());
+        assertEquals("example@example.com", users.get(0).get("email").asText());
+        assertFalse(users.get(0).has("password"));
+    }
+
+    @Test
+    public void testGetAllUsers_unchangedData_answersMatchingEtagWith304() throws Exception {
+        when(userRepository.getUsers()).thenReturn(List.of(new UserEntity(1, "poll@example.com", "hashed")));
+        userHandlers.getAllUsers(ctx);
+        var etag = ArgumentCaptor.forClass(String.class);
+        verify(ctx).header(eq("ETag"), etag.capture());
+
+        var poll = mock(Context.class);
+        when(poll.header("If-None-Match")).thenReturn(etag.getValue());
+        userHandlers.getAllUsers(poll);
+
+        verify(poll).status(304);
+        verify(poll, never()).result(any(byte[].class));
+        verify(userRepository, times(1)).getUsers();
+    }
+
+    @Test
+    public void testGetAllUsers_newVersion_rendersAgainGzippedWhenAccepted() throws Exception {
+        when(userRepository.getUsers()).thenReturn(List.of(new UserEntity(1, "a@example.com", "hashed")));
+        userHandlers.getAllUsers(ctx);
+
+        when(userRepository.dataVersion()).thenReturn(1L);
+        when(userRepository.getUsers()).thenReturn(List.of(
+            new UserEntity(1, "a@example.com", "hashed"), new UserEntity(2, "b@example.com", "hashed")));
+        var poll = mock(Context.class);
+        when(poll.header("Accept-Encoding")).thenReturn("br, gzip;q=0.8");
+        userHandlers.getAllUsers(poll);
+
+        var captor = ArgumentCaptor.forClass(byte[].class);
+        verify(poll).header("Content-Encoding", "gzip");
+        verify(poll).result(captor.capture());
+        try (var gzip = new GZIPInputStream(new ByteArrayInputStream(captor.getValue()))) {
+            assertEquals(2, objectMapper.readTree(gzip).get("users").get("response").size());
+        }
+    }
+
+    @Test
+    public void testGetUsersPage_moreRows_returnsNextCursor() throws Exception {
+        var validation = new Validation();
+        when(ctx.queryParam("limit")).thenReturn("2");
+        when(ctx.queryParamAsClass("after", Integer.class)).thenReturn(validation.validator("after", Integer.class, "10"));
+        when(ctx.queryParamAsClass("limit", Integer.class)).thenReturn(validation.validator("limit", Integer.class, "2"));
+        when(userRepository.getUsersPage(10, 3)).thenReturn(List.of(
+            new UserEntity(11, "a@example.com", "hashed"),
+            new UserEntity(12, "b@example.com", "hashed"),
+            new UserEntity(13, "c@example.com", "hashed")));
+        var body = responseBody();
+
+        userHandlers.getAllUsers(ctx);
+
+        var page = json(body).get("users").get("response");
+        assertEquals(2, page.get("users").size());
+        assertEquals(12, page.get("nextCursor").asInt());
+    }
+
+    @Test
+    public void testGetUsersPage_lastPage_returnsNoCursor() throws Exception {
+        var validation = new Validation();
+        when(ctx.queryParam("after")).thenReturn("12");
+        when(ctx.queryParamAsClass("after", Integer.class)).thenReturn(validation.validator("after", Integer.class, "12"));
+        when(ctx.queryParamAsClass("limit", Integer.class)).thenReturn(validation.validator("limit", Integer.class, null));
+        when(userRepository.getUsersPage(12, 101)).thenReturn(List.of(new UserEntity(13, "c@example.com", "hashed")));
+        var body = responseBody();
+
+        userHandlers.getAllUsers(ctx);
+
+        var page = json(body).get("users").get("response");
+        assertEquals(1, page.get("users").size());
+        assertFalse(page.has("nextCursor"));
     }
 
     @Test
@@ -84,13 +252,68 @@ public class UserHandlerTest {
 
         when(ctx.body()).thenReturn(objectMapper.writeValueAsString(user));
         when(userRepository.getSingleUser("valid@example.com")).thenReturn(Optional.of(userEntity));
-
-        var captor = ArgumentCaptor.forClass(Map.class);
-        when(ctx.json(captor.capture())).thenReturn(ctx);
+        var body = responseBody();
 
         userHandlers.getSingleUser(ctx);
 
-        assertNotNull(captor.getValue().get("data"));
+        var response = json(body);
+        assertEquals(1, response.get("data").get("response").get("id").asInt());
+        assertFalse(response.get("data").get("response").has("password"));
+        assertFalse(response.get("session").get("token").asText().isBlank());
+        assertTrue(response.get("session").get("expiresAt").asLong() > 0);
+    }
+
+    @Test
+    public void testGetSession_validToken_returnsUserWithoutRepository() throws Exception {
+        var tokenManager = new TokenManager(Duration.ofMinutes(15));
+        var handlers = new UserHandlers(userRepository, tokenManager);
+        var token = tokenManager.issue(1, "valid@example.com").token();
+
+        when(ctx.header("Authorization")).thenReturn("Bearer " + token);
+        var body = responseBody();
+
+        handlers.getSession(ctx);
+
+        var user = json(body).get("data").get("response");
+        assertEquals(1, user.get("id").asInt());
+        verifyNoInteractions(userRepository);
+    }
+
+    @Test
+    public void testLogout_revokesSession() throws Exception {
+        var tokenManager = new TokenManager(Duration.ofMinutes(15));
+        var handlers = new UserHandlers(userRepository, tokenManager);
+        var token = tokenManager.issue(1, "valid@example.com").token();
+        when(ctx.header("Authorization")).thenReturn("Bearer " + token);
+
+        handlers.logout(ctx);
+
+        verify(ctx).status(204);
+        assertThrows(UnauthorizedException.class, () -> handlers.getSession(ctx));
+    }
+
+    @Test
+    public void testGetSingleUser_outdatedHash_isRehashedInBackground() throws Exception {
+        var user = new UserModels.User(0, "legacy@example.com", "password123");
+        var outdatedHash = CryptManager.hashPassword("password123", HashProfile.LEGACY_HKDF);
+        var userEntity = new UserEntity(1, "legacy@example.com", outdatedHash);
+
+        when(ctx.body()).thenReturn(objectMapper.writeValueAsString(user));
+        when(userRepository.getSingleUser("legacy@example.com")).thenReturn(Optional.of(userEntity));
+        when(userRepository.rehashPassword(any(), any())).thenReturn(true);
+        responseBody();
+
+        var profile = CryptManager.defaultProfile();
+        CryptManager.configure(HashProfile.PBKDF2_SHA256_LOW);
+        try {
+            userHandlers.getSingleUser(ctx);
+
+            verify(userRepository, timeout(5_000)).rehashPassword(
+                eq(userEntity),
+                argThat(newHash -> !CryptManager.needsRehash(newHash) && CryptManager.verifyPassword("password123", newHash)));
+        } finally {
+            CryptManager.configure(profile);
+        }
     }
 
     @Test
@@ -108,20 +331,56 @@ public class UserHandlerTest {
     }
 
     @Test
-    public void testUpdateUser_successful_returnsUpdatedUser() throws Exception {
+    public void testUpdateUser_successful_returnsUpdatedUserWithoutPassword() throws Exception {
+        var user = new UserModels.User(0, "update@example.com", "newPass");
+        var userEntity = new UserEntity(1, "update@example.com", "newHash");
+
+        when(ctx.body()).thenReturn(objectMapper.writeValueAsString(user));
+        when(userRepository.updatePassword(eq("update@example.com"), anyString(), isNull()))
+            .thenReturn(new UserStore.UpdateResult(UserModels.UpdateOutcome.UPDATED, userEntity, null));
+        var body = responseBody();
+
+        userHandlers.updateUser(ctx);
+
+        var updated = json(body).get("data").get("response");
+        assertEquals(1, updated.get("id").asInt());
+        assertFalse(updated.has("password"));
+        verify(userRepository, never()).getSingleUser(any());
+        verify(ctx, never()).header(eq("ETag"), anyString());
+    }
+
+    @Test
+    public void testUpdateUser_revokesSessionsIssuedBefore() throws Exception {
+        var tokenManager = new TokenManager(Duration.ofMinutes(15));
+        var handlers = new UserHandlers(userRepository, tokenManager);
+        var token = tokenManager.issue(1, "update@example.com").token();
         var user = new UserModels.User(0, "update@example.com", "newPass");
-        var userEntity = new UserEntity(1, "update@example.com", "oldPass");
 
         when(ctx.body()).thenReturn(objectMapper.writeValueAsString(user));
-        when(userRepository.getSingleUser("update@example.com")).thenReturn(Optional.of(userEntity));
-        when(userRepository.updateUser(userEntity)).thenReturn(Optional.of(userEntity));
+        when(userRepository.updatePassword(eq("update@example.com"), anyString(), isNull()))
+            .thenReturn(new UserStore.UpdateResult(UserModels.UpdateOutcome.UPDATED, new UserEntity(1, "update@example.com", "h"), null));
+        when(ctx.header("Authorization")).thenReturn("Bearer " + token);
+        responseBody();
+
+        handlers.updateUser(ctx);
+
+        assertThrows(UnauthorizedException.class, () -> handlers.getSession(ctx));
+    }
+
+    @Test
+    public void testUpdateUser_passwordIsHashedBeforeUpdate() throws Exception {
+        var user = new UserModels.User(0, "hash@example.com", "newPass");
 
-        var captor = ArgumentCaptor.forClass(Map.class);
-        when(ctx.json(captor.capture())).thenReturn(ctx);
+        when(ctx.body()).thenReturn(objectMapper.writeValueAsString(user));
+        var hashCaptor = ArgumentCaptor.forClass(String.class);
+        when(userRepository.updatePassword(eq("hash@example.com"), hashCaptor.capture(), isNull()))
+            .thenReturn(new UserStore.UpdateResult(UserModels.UpdateOutcome.UPDATED, new UserEntity(1, "hash@example.com", "h"), null));
+        responseBody();
 
         userHandlers.updateUser(ctx);
 
-        assertNotNull(captor.getValue().get("data"));
+        assertNotEquals("newPass", hashCaptor.getValue());
+        assertTrue(CryptManager.verifyPassword("newPass", hashCaptor.getValue()));
     }
 
     @Test
@@ -129,7 +388,8 @@ public class UserHandlerTest {
         var user = new UserModels.User(0, "missing@example.com", "newPass");
 
         when(ctx.body()).thenReturn(objectMapper.writeValueAsString(user));
-        when(userRepository.getSingleUser("missing@example.com")).thenReturn(Optional.empty());
+        when(userRepository.updatePassword(eq("missing@example.com"), anyString(), isNull()))
+            .thenReturn(new UserStore.UpdateResult(UserModels.UpdateOutcome.NOT_FOUND, null, null));
 
         var ex = assertThrows(ElementDoNotExistException.class, () -> {
             userHandlers.updateUser(ctx);
@@ -138,17 +398,43 @@ public class UserHandlerTest {
     }
 
     @Test
-    public void testUpdateUser_updateFails_throwsException() throws Exception {
-        var user = new UserModels.User(0, "failupdate@example.com", "newPass");
-        var userEntity = new UserEntity(1, "failupdate@example.com", "oldPass");
+    public void testUpdateUser_ifMatch_passesVersionAndReturnsNewEtag() throws Exception {
+        var user = new UserModels.User(0, "versioned@example.com", "newPass");
 
         when(ctx.body()).thenReturn(objectMapper.writeValueAsString(user));
-        when(userRepository.getSingleUser("failupdate@example.com")).thenReturn(Optional.of(userEntity));
-        when(userRepository.updateUser(userEntity)).thenReturn(Optional.empty());
+        when(ctx.header("If-Match")).thenReturn("W/\"7\"");
+        when(userRepository.versioningEnabled()).thenReturn(true);
+        when(userRepository.updatePassword(eq("versioned@example.com"), anyString(), eq(7L)))
+            .thenReturn(new UserStore.UpdateResult(UserModels.UpdateOutcome.UPDATED, new UserEntity(1, "versioned@example.com", "h"), 8L));
+        responseBody();
 
-        var ex = assertThrows(DataIntegrityException.class, () -> {
-            userHandlers.updateUser(ctx);
-        });
-        assertEquals("User could not be updated", ex.message);
+        userHandlers.updateUser(ctx);
+
+        verify(ctx).header("ETag", "\"8\"");
+    }
+
+    @Test
+    public void testUpdateUser_staleVersion_throwsConflict() throws Exception {
+        var user = new UserModels.User(0, "stale@example.com", "newPass");
+
+        when(ctx.body()).thenReturn(objectMapper.writeValueAsString(user));
+        when(ctx.header("If-Match")).thenReturn("\"3\"");
+        when(userRepository.versioningEnabled()).thenReturn(true);
+        when(userRepository.updatePassword(eq("stale@example.com"), anyString(), eq(3L)))
+            .thenReturn(new UserStore.UpdateResult(UserModels.UpdateOutcome.VERSION_CONFLICT, null, 5L));
+
+        var ex = assertThrows(ConflictException.class, () -> userHandlers.updateUser(ctx));
+        assertEquals(409, ex.statusCode);
+    }
+
+    @Test
+    public void testUpdateUser_ifMatchWithoutVersioning_isRejectedBeforeHashing() throws Exception {
+        var user = new UserModels.User(0, "plain@example.com", "newPass");
+
+        when(ctx.body()).thenReturn(objectMapper.writeValueAsString(user));
+        when(ctx.header("If-Match")).thenReturn("\"3\"");
+
+        assertThrows(InvalidBodyException.class, () -> userHandlers.updateUser(ctx));
+        verify(userRepository, never()).updatePassword(any(), any(), any());
     }
 }